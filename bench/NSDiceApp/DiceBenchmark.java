@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static NSDiceApp.TokenID.*;
+
+/**
+ * Throughput of every stage of a roll, from tokenizing to evaluating, for
+ * inputs from a single die to long comma lists and huge pools. Run with the
+ * bench target in build.xml, which also turns on the gc profiler for
+ * allocation rates.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1)
+public class DiceBenchmark {
+
+    @Param({"d20", "3d6+5", "(2*3+4)d6 + 5 - 2", "list1000", "sum1000", "100000d6"})
+    public String input;
+
+    private String _expression;
+    private Tokenizer _tokenizer;
+    private Lexer _lexer;
+    private DiceLanguageParser _parser;
+    private ArrayList<Token> _tokens;
+    private Expression _tree;
+    private Expression _optimized;
+    private Program _program;
+    private Environment _environment;
+    private Interpreter _interpreter;
+    private DiceRollerLogic _logic;
+
+    // Expands the named inputs that are too long to list as parameters.
+    static String expression(String input) {
+        switch (input) {
+            case "list1000":
+                return repeat("d20+3", ", ", 1000);
+            case "sum1000":
+                return repeat("d6", " + ", 1000);
+            default:
+                return input;
+        }
+    }
+
+    private static String repeat(String term, String separator, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            sb.append(term);
+        }
+        return sb.toString();
+    }
+
+    @Setup
+    public void setup() throws Tokenizer.TokenizerException {
+        _expression = expression(input);
+
+        _tokenizer = new Tokenizer();
+        _tokenizer.addRule(Pattern.compile("[Dd]\\d+"), DICE);
+        _tokenizer.addRule(Pattern.compile("\\d+"), NUMBER);
+        _tokenizer.addRule(Pattern.compile("[,\\=\\(\\)\\.]"), LITERAL);
+        _tokenizer.addRule(Pattern.compile("[\\+\\-]"), ARITHOP);
+        _tokenizer.addRule(Pattern.compile("[\\/\\*]"), FACTOROP);
+        _tokenizer.addRule(Pattern.compile("[\\s+]"), WHITESPACE);
+        _tokenizer.addRule(Pattern.compile("[a-zA-Z]+"), CHARSEQUENCE);
+
+        _lexer = new Lexer();
+        _parser = DiceLanguageParser.grammar();
+        _tokens = _lexer.tokenize(_expression);
+        _tree = _parser.parse(_tokens);
+        _optimized = _parser.parse(_tokens).optimize();
+        _program = ExpressionCompiler.compile(_tree);
+        _environment = new Environment();
+        _interpreter = new Interpreter(DiceRandomSource.xoshiro(2));
+        _logic = new DiceRollerLogic(DiceRandomSource.xoshiro(3));
+    }
+
+    @Benchmark
+    public ArrayList<Token> tokenizeRegex() throws Tokenizer.TokenizerException {
+        return _tokenizer.tokenize(_expression);
+    }
+
+    @Benchmark
+    public ArrayList<Token> tokenize() throws Tokenizer.TokenizerException {
+        return _lexer.tokenize(_expression);
+    }
+
+    @Benchmark
+    public Expression parse() {
+        return _parser.parse(_tokens);
+    }
+
+    @Benchmark
+    public Expression parseOptimized() {
+        return _parser.parse(_tokens).optimize();
+    }
+
+    @Benchmark
+    public Program compile() {
+        return ExpressionCompiler.compile(_tree);
+    }
+
+    @Benchmark
+    public IntVector evaluateTree() {
+        return _tree.evaluate(_environment);
+    }
+
+    @Benchmark
+    public IntVector evaluateOptimizedTree() {
+        return _optimized.evaluate(_environment);
+    }
+
+    @Benchmark
+    public IntVector evaluateProgram() {
+        return _interpreter.run(_program);
+    }
+
+    @Benchmark
+    public String endToEnd() {
+        return _logic.evaluate(_expression);
+    }
+
+    @Benchmark
+    public IntVector endToEndValues() {
+        return _logic.roll(_expression);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rolls expressions from a file or standard input without opening a window.
+ *
+ * Every input line is rolled and gives exactly one output line, either the
+ * values separated by spaces or a JSON object. With more than one thread the
+ * lines are rolled in batches on a worker pool and written in input order.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class BatchRoller {
+
+    private static final int BATCH_SIZE = 4096;
+    private static final String USAGE
+            = "Usage: --batch [--json] [--threads N] [file]";
+
+    private final boolean _json;
+    // The workers share the logic and its cache of compiled lines.
+    private final DiceRollerLogic _logic;
+    // Lines are rolled out of order, so each starts without variables.
+    private final ThreadLocal<Interpreter> _interpreter;
+
+    public BatchRoller(boolean json) {
+        _json = json;
+        _logic = new DiceRollerLogic();
+        _interpreter = ThreadLocal.withInitial(() -> new Interpreter(DiceRandomSource.threadLocal(),
+                _logic.newEnvironment()));
+    }
+
+    public static void main(String[] args) {
+        boolean json = false;
+        int threads = 1;
+        String file = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--json":
+                        json = true;
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        if (file != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException(args[i]);
+                        }
+                        file = args[i];
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        try (InputStream in = file == null ? System.in : new FileInputStream(file)) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+            new BatchRoller(json).run(reader, writer, Math.max(threads, 1));
+            writer.flush();
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public void run(BufferedReader reader, Writer writer, int threads) throws IOException {
+        if (threads == 1) {
+            StringBuilder sb = new StringBuilder(256);
+            long number = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sb.setLength(0);
+                format(sb, ++number, line);
+                writer.append(sb);
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // Keep a few batches per worker in flight and write them out
+            // strictly in the order they were read.
+            ArrayDeque<Future<StringBuilder>> pending = new ArrayDeque<>();
+            long number = 0;
+            boolean done = false;
+            while (!done || !pending.isEmpty()) {
+                while (!done && pending.size() < threads * 2) {
+                    ArrayList<String> batch = new ArrayList<>(BATCH_SIZE);
+                    String line;
+                    while (batch.size() < BATCH_SIZE && (line = reader.readLine()) != null) {
+                        batch.add(line);
+                    }
+                    done = batch.size() < BATCH_SIZE;
+                    if (!batch.isEmpty()) {
+                        long first = number + 1;
+                        number += batch.size();
+                        pending.add(pool.submit(() -> formatBatch(first, batch)));
+                    }
+                }
+                if (!pending.isEmpty()) {
+                    writer.append(pending.poll().get());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private StringBuilder formatBatch(long first, ArrayList<String> lines) {
+        StringBuilder sb = new StringBuilder(lines.size() * 16);
+        for (String line : lines) {
+            format(sb, first++, line);
+        }
+        return sb;
+    }
+
+    private void format(StringBuilder sb, long number, String line) {
+        IntVector values = null;
+        String error = null;
+        try {
+            CompiledExpression compiled = _logic.compile(line);
+            if (compiled == null) {
+                error = "String can't be parsed.";
+            } else {
+                Interpreter interpreter = _interpreter.get();
+                interpreter.environment().clear();
+                values = _logic.roll(compiled, interpreter);
+            }
+        } catch (ArithmeticException ex) {
+            error = "Division by zero.";
+        } catch (IllegalArgumentException | Environment.UnboundException ex) {
+            error = ex.getMessage();
+        }
+
+        if (_json) {
+            sb.append("{\"line\":").append(number).append(",\"expression\":");
+            appendJsonString(sb, line);
+            if (error != null) {
+                sb.append(",\"error\":");
+                appendJsonString(sb, error);
+            } else {
+                sb.append(",\"results\":[");
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(values.get(i));
+                }
+                sb.append(']');
+            }
+            sb.append('}');
+        } else if (error != null) {
+            sb.append("error: ").append(error);
+        } else {
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                sb.append(values.get(i));
+            }
+        }
+        sb.append('\n');
+    }
+
+    static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
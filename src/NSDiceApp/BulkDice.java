@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Rolls many dice with the same number of faces at once.
+ *
+ * Instead of one bounded draw per die, each 64 bit random word x is read as
+ * the fraction x / 2^64 and k dice are taken as its first k digits in base
+ * faces, each with a multiplication rather than a division. As in Lemire's
+ * bounded draw, a word is rejected when the low 64 bits of x * faces^k fall
+ * below 2^64 mod faces^k, which makes the digits exactly uniform. k is the
+ * number that gives the most dice per word once rejections are counted, so
+ * a d6 takes 23 dice from a word and keeps 98% of the words, and a d20 takes
+ * 14. Dice with a power of two faces are plain bit fields. Large pools cost
+ * a fraction of a random call per die.
+ *
+ * Every few thousand words the rolling thread is checked for an interrupt,
+ * which stops the roll with a CancellationException.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class BulkDice {
+
+    private static final int POLL_MASK = (1 << 12) - 1;
+
+    private final DiceRandomSource _rnd;
+    private final int _faces;
+    private final int _perWord;
+    private final int _bits;
+    // faces^_perWord, and the words below which x * _power is rejected.
+    private final long _power;
+    private final long _threshold;
+
+    public BulkDice(DiceRandomSource rnd, int faces) {
+        if (faces <= 0) {
+            throw new IllegalArgumentException("A die needs at least one face");
+        }
+        _rnd = rnd;
+        _faces = faces;
+        if ((faces & (faces - 1)) == 0) {
+            _bits = Integer.numberOfTrailingZeros(faces);
+            _perWord = _bits == 0 ? Integer.MAX_VALUE : 64 / _bits;
+            _power = 0;
+            _threshold = 0;
+        } else {
+            long power = 1;
+            long bestPower = 1;
+            long bestThreshold = 0;
+            int perWord = 0;
+            double best = 0.0;
+            long largest = Long.divideUnsigned(-1L, faces);
+            for (int k = 1; Long.compareUnsigned(power, largest) <= 0; k++) {
+                power *= faces;
+                // 2^64 mod power, the number of words out of 2^64 that are
+                // rejected.
+                long threshold = Long.remainderUnsigned(-power, power);
+                double expected = k * (1.0 - threshold / 0x1p64);
+                if (expected > best) {
+                    best = expected;
+                    perWord = k;
+                    bestPower = power;
+                    bestThreshold = threshold;
+                }
+            }
+            _bits = -1;
+            _perWord = perWord;
+            _power = bestPower;
+            _threshold = bestThreshold;
+        }
+    }
+
+    public static long sum(DiceRandomSource rnd, int faces, long count) {
+        return new BulkDice(rnd, faces).sum(count);
+    }
+
+    public static void roll(DiceRandomSource rnd, int faces, int[] out, int offset, int count) {
+        new BulkDice(rnd, faces).roll(out, offset, count);
+    }
+
+    private int _words;
+
+    private long nextWord() {
+        if ((++_words & POLL_MASK) == 0 && Thread.interrupted()) {
+            throw new CancellationException("Roll cancelled");
+        }
+        if (_bits >= 0) {
+            return _rnd.nextLong();
+        }
+        long word;
+        do {
+            word = _rnd.nextLong();
+        } while (Long.compareUnsigned(word * _power, _threshold) < 0);
+        return word;
+    }
+
+    // The next digit of the fraction word / 2^64 in base faces, which is the
+    // high half of word * faces.
+    private long digit(long word) {
+        long low = (word & 0xFFFFFFFFL) * _faces;
+        return ((word >>> 32) * _faces + (low >>> 32)) >>> 32;
+    }
+
+    // Sum of count dice, without keeping the individual rolls. Counts below
+    // one give zero.
+    public long sum(long count) {
+        if (count <= 0) {
+            return 0;
+        }
+        if (_faces == 1) {
+            return count;
+        }
+        long sum = count;
+        while (count > 0) {
+            int dice = (int) Math.min(count, _perWord);
+            long word = nextWord();
+            if (_bits > 0) {
+                long mask = _faces - 1;
+                for (int i = 0; i < dice; i++) {
+                    sum += word & mask;
+                    word >>>= _bits;
+                }
+            } else {
+                for (int i = 0; i < dice; i++) {
+                    sum += digit(word);
+                    word *= _faces;
+                }
+            }
+            count -= dice;
+        }
+        return sum;
+    }
+
+    // Writes count dice to out, starting at offset.
+    public void roll(int[] out, int offset, int count) {
+        int end = offset + count;
+        if (_faces == 1) {
+            Arrays.fill(out, offset, end, 1);
+            return;
+        }
+        while (offset < end) {
+            int dice = Math.min(end - offset, _perWord);
+            long word = nextWord();
+            if (_bits > 0) {
+                long mask = _faces - 1;
+                for (int i = 0; i < dice; i++) {
+                    out[offset++] = (int) (word & mask) + 1;
+                    word >>>= _bits;
+                }
+            } else {
+                for (int i = 0; i < dice; i++) {
+                    out[offset++] = (int) digit(word) + 1;
+                    word *= _faces;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.ArrayList;
+
+/**
+ * An expression that has been tokenized, parsed and compiled, ready to be
+ * rolled any number of times.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class CompiledExpression {
+
+    private final String _source;
+    private final ArrayList<Token> _tokens;
+    private final Expression _expression;
+    private final Program _program;
+
+    public CompiledExpression(String source, ArrayList<Token> tokens,
+            Expression expression, Program program) {
+        _source = source;
+        _tokens = tokens;
+        _expression = expression;
+        _program = program;
+    }
+
+    public String source() {
+        return _source;
+    }
+
+    public ArrayList<Token> tokens() {
+        return _tokens;
+    }
+
+    public Expression expression() {
+        return _expression;
+    }
+
+    public Program program() {
+        return _program;
+    }
+}
@@ -26,39 +26,42 @@ package NSDiceApp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Random;
 
 import static NSDiceApp.ParserRuleID.*;
 import static NSDiceApp.TokenID.*;
 
 /**
+ * The grammar of the dice language.
+ *
+ * The rules are built once and never changed afterwards, and every parse
+ * keeps its state in a memo of its own, so the single {@link #grammar()}
+ * is shared by all threads. Parsed trees hold no random source or
+ * variables either. Trees evaluated directly roll with the thread local
+ * source and keep their variables in the {@link Environment} they are
+ * evaluated in.
  *
  * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
  */
 public class DiceLanguageParser {
 
+    private static final DiceLanguageParser GRAMMAR = new DiceLanguageParser();
+
     private final HashMap<ParserRuleID, ParserRule> _rules;
     private final ParserRule _root;
-    private final Random _rnd;
 
-    public DiceLanguageParser() {
+    public static DiceLanguageParser grammar() {
+        return GRAMMAR;
+    }
+
+    private DiceLanguageParser() {
         _rules = new HashMap<>();
-        _rnd = new Random();
 
         // plusminus
         _rules.put(PLUSMINUS, new ParserRule());
         _rules.get(PLUSMINUS).addTerminal(ARITHOP, new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                String literal = getTokens().get(0).Literal();
-                switch (literal) {
-                    case "+":
-                        return makeList(1);
-                    case "-":
-                        return makeList(-1);
-                    default:
-                        throw new RuntimeException("Internal parse error");
-                }
+            public int evaluateScalar(Environment environment) {
+                return token(0).Value();
             }
         });
 
@@ -66,40 +69,30 @@ public class DiceLanguageParser {
         _rules.put(MULTDIV, new ParserRule());
         _rules.get(MULTDIV).addTerminal(FACTOROP, new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                String literal = getTokens().get(0).Literal();
-                switch (literal) {
-                    case "*":
-                        return makeList(1);
-                    case "/":
-                        return makeList(-1);
-                    default:
-                        throw new RuntimeException("Internal parse error");
-                }
+            public int evaluateScalar(Environment environment) {
+                return token(0).Value();
+            }
+        });
+
+        // name, a part of a qualified name
+        _rules.put(NAME, new ParserRule());
+        _rules.get(NAME).addTerminal(CHARSEQUENCE, new Expression() {
+            @Override
+            public int evaluateScalar(Environment environment) {
+                throw new UnsupportedOperationException("Names are only parts of variables");
             }
         });
 
         // non-terminals
+        // A variable, such as str or character.str.
         _rules.put(DOTOPERATION, new ParserRule());
         _rules.get(DOTOPERATION).addNonTerminal(
                 new ArrayList<>(Arrays.asList(
                         _rules.get(DOTOPERATION),
                         ParserRule.makeLiteral("."),
                         _rules.get(NAME))),
-                new Expression() {
-            @Override
-            public ArrayList<Integer> evaluate() {
-                //No name operations supported yet.
-                return makeList(-1);
-            }
-        });
-        _rules.get(DOTOPERATION).addTerminal(CHARSEQUENCE, new Expression() {
-            @Override
-            public ArrayList<Integer> evaluate() {
-                //No name operations supported yet.
-                return makeList(-1);
-            }
-        });
+                variable());
+        _rules.get(DOTOPERATION).addTerminal(CHARSEQUENCE, variable());
 
         // Atom rules declared.
         _rules.put(ATOM, new ParserRule());
@@ -107,17 +100,37 @@ public class DiceLanguageParser {
         // Number constant expression
         _rules.get(ATOM).addTerminal(NUMBER, new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return makeList(Integer.parseInt(getTokens().get(0).Literal()));
+            public int evaluateScalar(Environment environment) {
+                return token(0).Value();
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                compiler.push(token(0).Value());
+            }
+
+            @Override
+            public Expression optimize() {
+                return Expression.constant(evaluateScalar(), this);
             }
         });
 
         // Dice expression
         _rules.get(ATOM).addTerminal(DICE, new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                String literal = getTokens().get(0).Literal().replace("d", "");
-                return makeList(_rnd.nextInt(Integer.parseInt(literal)) + 1);
+            public int evaluateScalar(Environment environment) {
+                return DiceRandomSource.threadLocal().roll(token(0).Value());
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                compiler.roll(token(0).Value());
+            }
+
+            @Override
+            public Expression optimize() {
+                // A one sided die always shows one.
+                return token(0).Value() == 1 ? Expression.constant(1, this) : this;
             }
         });
 
@@ -127,8 +140,18 @@ public class DiceLanguageParser {
                         _rules.get(DOTOPERATION))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return getChildAt(0).evaluate();
+            public int evaluateScalar(Environment environment) {
+                return getChildAt(0).evaluateScalar(environment);
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(0).compile(compiler);
+            }
+
+            @Override
+            public Expression optimize() {
+                return getChildAt(0).optimize();
             }
         });
 
@@ -141,16 +164,46 @@ public class DiceLanguageParser {
                         _rules.get(ATOM))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return makeList((int) (result(0) * Math.pow(result(2), result(1))));
+            public int evaluateScalar(Environment environment) {
+                int left = result(0, environment);
+                int right = result(2, environment);
+                return result(1, environment) > 0 ? left * right : left / right;
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(0).compile(compiler);
+                getChildAt(2).compile(compiler);
+                compiler.emit(result(1) > 0 ? Program.MUL : Program.DIV);
+            }
+
+            @Override
+            public Expression optimize() {
+                super.optimize();
+                // Division by zero is left to fail when rolled.
+                if (getChildAt(0).isConstant() && getChildAt(2).isConstant()
+                        && (result(1) > 0 || result(2) != 0)) {
+                    return Expression.constant(evaluateScalar(), this);
+                }
+                return this;
             }
         });
         _rules.get(TERM).addNonTerminal(
                 new ArrayList<>(Arrays.asList(_rules.get(ATOM))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return getChildAt(0).evaluate();
+            public int evaluateScalar(Environment environment) {
+                return getChildAt(0).evaluateScalar(environment);
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(0).compile(compiler);
+            }
+
+            @Override
+            public Expression optimize() {
+                return getChildAt(0).optimize();
             }
         });
 
@@ -163,8 +216,35 @@ public class DiceLanguageParser {
                         _rules.get(TERM))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return makeList(result(0) + result(1) * result(2));
+            public int evaluateScalar(Environment environment) {
+                return result(0, environment) + result(1, environment) * result(2, environment);
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(0).compile(compiler);
+                getChildAt(2).compile(compiler);
+                compiler.emit(result(1) > 0 ? Program.ADD : Program.SUB);
+            }
+
+            @Override
+            public Expression optimize() {
+                // Chains of + and - nest to the left, one level per
+                // operator. Walk down them without recursing and add the
+                // terms to a single sum, leftmost first.
+                ArrayList<Expression> chain = new ArrayList<>();
+                Expression e = this;
+                while (e.getClass() == getClass()) {
+                    chain.add(e);
+                    e = e.getChildAt(0);
+                }
+                SumExpression sum = new SumExpression(this);
+                sum.add(1, e.optimize());
+                for (int i = chain.size() - 1; i >= 0; i--) {
+                    Expression link = chain.get(i);
+                    sum.add(link.result(1), link.getChildAt(2).optimize());
+                }
+                return sum.simplify();
             }
         });
         _rules.get(ARITHEXPR).addNonTerminal(
@@ -173,8 +253,22 @@ public class DiceLanguageParser {
                         _rules.get(TERM))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return makeList(-result(0));
+            public int evaluateScalar(Environment environment) {
+                return -result(0, environment);
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                compiler.push(0);
+                getChildAt(0).compile(compiler);
+                compiler.emit(Program.SUB);
+            }
+
+            @Override
+            public Expression optimize() {
+                SumExpression sum = new SumExpression(this);
+                sum.add(-1, getChildAt(0).optimize());
+                return sum.simplify();
             }
         });
         _rules.get(ARITHEXPR).addNonTerminal(
@@ -183,20 +277,65 @@ public class DiceLanguageParser {
                         _rules.get(TERM))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
+            public int evaluateScalar(Environment environment) {
+                int count = result(0, environment);
+                // Pools of plain dice are rolled in bulk, or drawn from the
+                // distribution of their sum when large.
+                if (getChildAt(1).tokenCount() == 1 && getChildAt(1).token(0).Token() == DICE) {
+                    return PoolSampler.sum(DiceRandomSource.threadLocal(),
+                            getChildAt(1).token(0).Value(), count);
+                }
                 int res = 0;
-                for (int i = 0; i < result(0); i++) {
-                    res += result(1);
+                for (int i = 0; i < count; i++) {
+                    res += result(1, environment);
+                }
+                return res;
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(0).compile(compiler);
+                int mark = compiler.beginRepeat();
+                getChildAt(1).compile(compiler);
+                compiler.endRepeat(mark);
+            }
+
+            @Override
+            public Expression optimize() {
+                super.optimize();
+                Expression count = getChildAt(0);
+                Expression body = getChildAt(1);
+                if (count.isConstant()) {
+                    int n = count.evaluateScalar();
+                    if (n <= 0) {
+                        return Expression.constant(0, this);
+                    }
+                    if (n == 1) {
+                        return body;
+                    }
+                    if (body.isConstant()) {
+                        return Expression.constant(n * body.evaluateScalar(), this);
+                    }
                 }
-                return makeList(res);
+                return this;
             }
         });
         _rules.get(ARITHEXPR).addNonTerminal(
                 new ArrayList<>(Arrays.asList(_rules.get(TERM))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return getChildAt(0).evaluate();
+            public int evaluateScalar(Environment environment) {
+                return getChildAt(0).evaluateScalar(environment);
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(0).compile(compiler);
+            }
+
+            @Override
+            public Expression optimize() {
+                return getChildAt(0).optimize();
             }
         });
 
@@ -208,8 +347,18 @@ public class DiceLanguageParser {
                         ParserRule.makeLiteral(")"))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return getChildAt(0).evaluate();
+            public int evaluateScalar(Environment environment) {
+                return getChildAt(0).evaluateScalar(environment);
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(0).compile(compiler);
+            }
+
+            @Override
+            public Expression optimize() {
+                return getChildAt(0).optimize();
             }
         });
 
@@ -221,16 +370,34 @@ public class DiceLanguageParser {
                         _rules.get(ARITHEXPR))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return getChildAt(1).evaluate();
+            public int evaluateScalar(Environment environment) {
+                int value = result(1, environment);
+                environment.set(((Variable) getChildAt(0)).slot(environment), value);
+                return value;
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(1).compile(compiler);
+                compiler.store(compiler.slot(((Variable) getChildAt(0)).name()));
             }
         });
         _rules.get(ASSIGNMENT).addNonTerminal(
                 new ArrayList<>(Arrays.asList(_rules.get(ARITHEXPR))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return getChildAt(0).evaluate();
+            public int evaluateScalar(Environment environment) {
+                return getChildAt(0).evaluateScalar(environment);
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(0).compile(compiler);
+            }
+
+            @Override
+            public Expression optimize() {
+                return getChildAt(0).optimize();
             }
         });
 
@@ -242,26 +409,105 @@ public class DiceLanguageParser {
                         _rules.get(ASSIGNMENT))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                ArrayList<Integer> ret = getChildAt(0).evaluate();
-                ret.addAll(getChildAt(1).evaluate());
+            public IntVector evaluate(Environment environment) {
+                IntVector ret = getChildAt(0).evaluate(environment);
+                ret.add(getChildAt(1).evaluateScalar(environment));
                 return ret;
             }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(0).compile(compiler);
+                getChildAt(1).compile(compiler);
+                compiler.emit(Program.CONCAT);
+            }
         });
         _rules.get(EXPR).addNonTerminal(
                 new ArrayList<>(Arrays.asList(_rules.get(ASSIGNMENT))),
                 new Expression() {
             @Override
-            public ArrayList<Integer> evaluate() {
-                return getChildAt(0).evaluate();
+            public IntVector evaluate(Environment environment) {
+                return getChildAt(0).evaluate(environment);
+            }
+
+            // A list of one has the single value of its element.
+            @Override
+            public int evaluateScalar(Environment environment) {
+                return getChildAt(0).evaluateScalar(environment);
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                getChildAt(0).compile(compiler);
+                compiler.emit(Program.CONCAT);
             }
         });
 
         _root = _rules.get(EXPR);
     }
 
+    // A variable named by the tokens of a qualified name. The compiler gives
+    // it its slot in the program, and evaluating it keeps its slot in the
+    // environment it was last evaluated in.
+    private static class Variable extends Expression {
+
+        private String _name;
+        private Environment.Binding _binding;
+
+        public String name() {
+            if (_name == null) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < tokenCount(); i++) {
+                    sb.append(token(i).Literal());
+                }
+                _name = sb.toString();
+            }
+            return _name;
+        }
+
+        public int slot(Environment environment) {
+            Environment.Binding binding = environment.bind(_binding, name());
+            _binding = binding;
+            return binding.slot(0);
+        }
+
+        @Override
+        public int evaluateScalar(Environment environment) {
+            return environment.get(slot(environment));
+        }
+
+        @Override
+        public void compile(ExpressionCompiler compiler) {
+            compiler.load(compiler.slot(name()));
+        }
+    }
+
+    private static Expression variable() {
+        return new Variable();
+    }
+
+    // Returns null unless the whole token list forms an expression.
     public Expression parse(ArrayList<Token> tokens) {
-        Expression e = _root.match(tokens);
+        return parse(tokens, new ParserRule.Memo(tokens.size()));
+    }
+
+    // As above, reusing the match attempts in memo. The tree may share nodes
+    // with earlier parses through the memo, so it must not be optimized.
+    // Returns null if the tokens don't parse, or if the tree would be too
+    // deep to work with. A memo carried over from an earlier parse can hold
+    // deep subtrees without matching them again, so the height of the tree
+    // is checked as well as how deeply the match nested.
+    public Expression parse(ArrayList<Token> tokens, ParserRule.Memo memo) {
+        Expression e;
+        try {
+            e = _root.match(tokens, memo);
+        } catch (ParserRule.DepthException ex) {
+            return null;
+        }
+        if (e == null || e.tokenCount() != tokens.size()
+                || e.height() > ParserRule.MAX_DEPTH) {
+            return null;
+        }
         return e;
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Source of random numbers for rolling dice.
+ *
+ * Implementations only need to provide 64 random bits at a time. Bounded
+ * values are drawn with Lemire's multiply and reject method, which is
+ * unbiased and rarely needs a division. Only the thread local source may be
+ * shared between threads; give every thread or task its own split of the
+ * others.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public interface DiceRandomSource {
+
+    long nextLong();
+
+    default int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    // Uniform value from 0 up to but not including bound.
+    default int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        long product = (nextInt() & 0xFFFFFFFFL) * bound;
+        long low = product & 0xFFFFFFFFL;
+        if (low < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while (low < threshold) {
+                product = (nextInt() & 0xFFFFFFFFL) * bound;
+                low = product & 0xFFFFFFFFL;
+            }
+        }
+        return (int) (product >>> 32);
+    }
+
+    // Uniform value from 0 up to but not including 1.
+    default double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    default int roll(int faces) {
+        return nextInt(faces) + 1;
+    }
+
+    // A new source whose values are independent of this one.
+    DiceRandomSource split();
+
+    static DiceRandomSource threadLocal() {
+        return ThreadLocalSource.INSTANCE;
+    }
+
+    static DiceRandomSource splittable(long seed) {
+        return new SplittableSource(new SplittableRandom(seed));
+    }
+
+    static DiceRandomSource seeded(long seed) {
+        return new SeededSource(seed);
+    }
+
+    static DiceRandomSource xoshiro(long seed) {
+        return new XoshiroSource(seed);
+    }
+
+    /**
+     * Draws from the calling thread's ThreadLocalRandom, so it can be shared
+     * by any number of threads without contention.
+     */
+    class ThreadLocalSource implements DiceRandomSource {
+
+        private static final ThreadLocalSource INSTANCE = new ThreadLocalSource();
+
+        private ThreadLocalSource() {
+        }
+
+        @Override
+        public long nextLong() {
+            return ThreadLocalRandom.current().nextLong();
+        }
+
+        @Override
+        public DiceRandomSource split() {
+            return this;
+        }
+    }
+
+    class SplittableSource implements DiceRandomSource {
+
+        private final SplittableRandom _rnd;
+
+        public SplittableSource(SplittableRandom rnd) {
+            _rnd = rnd;
+        }
+
+        @Override
+        public long nextLong() {
+            return _rnd.nextLong();
+        }
+
+        @Override
+        public DiceRandomSource split() {
+            return new SplittableSource(_rnd.split());
+        }
+    }
+
+    /**
+     * SplitMix64 stream whose whole state is one long, so it can be recorded
+     * and restored to repeat a sequence of rolls exactly.
+     */
+    class SeededSource implements DiceRandomSource {
+
+        private long _state;
+
+        public SeededSource(long state) {
+            _state = state;
+        }
+
+        public long state() {
+            return _state;
+        }
+
+        @Override
+        public long nextLong() {
+            _state += 0x9E3779B97F4A7C15L;
+            return mix(_state);
+        }
+
+        static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        @Override
+        public DiceRandomSource split() {
+            return new SeededSource(mix(nextLong()));
+        }
+    }
+
+    /**
+     * xoshiro256** generator, seeded through SplitMix64.
+     */
+    class XoshiroSource implements DiceRandomSource {
+
+        private long _s0;
+        private long _s1;
+        private long _s2;
+        private long _s3;
+
+        public XoshiroSource(long seed) {
+            SeededSource seeder = new SeededSource(seed);
+            _s0 = seeder.nextLong();
+            _s1 = seeder.nextLong();
+            _s2 = seeder.nextLong();
+            _s3 = seeder.nextLong();
+        }
+
+        @Override
+        public long nextLong() {
+            long result = Long.rotateLeft(_s1 * 5, 7) * 9;
+            long t = _s1 << 17;
+            _s2 ^= _s0;
+            _s3 ^= _s1;
+            _s1 ^= _s2;
+            _s0 ^= _s3;
+            _s2 ^= t;
+            _s3 = Long.rotateLeft(_s3, 45);
+            return result;
+        }
+
+        @Override
+        public DiceRandomSource split() {
+            return new XoshiroSource(nextLong());
+        }
+    }
+}
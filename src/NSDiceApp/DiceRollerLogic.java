@@ -23,48 +23,282 @@
  */
 package NSDiceApp;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
-import java.util.LinkedList;
-import javafx.util.Pair;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
+
+import static NSDiceApp.RollMetrics.Stage.*;
 
-import static NSDiceApp.TokenID.*;
 /**
+ * Parses, caches and rolls dice expressions.
+ *
+ * One logic can be shared by any number of threads. The grammar is shared
+ * and parsing keeps no state between calls, the cache never blocks a hit,
+ * and rolls made without an interpreter use one of the calling thread's
+ * own, so nothing on the way to a result takes a lock. Each of those
+ * threads keeps its own variables.
+ *
+ * With a journal set every roll is written to it, see {@link RollJournal}.
+ * Journaled rolls draw their dice from a SplitMix64 stream with a seed of
+ * their own, which the journal keeps so they can be replayed. Simulations
+ * are not journaled.
  *
  * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
  */
 public class DiceRollerLogic {
+
+    public static final int DEFAULT_CACHE_SIZE = 256;
     
-    private final Tokenizer _tokenizer;
+    private final Lexer _lexer;
     private final DiceLanguageParser _parser;
+    private final LruCache<String, CompiledExpression> _cache;
+    private final ThreadLocal<Interpreter> _interpreter;
+    private final RollMetrics _metrics;
+    private volatile RollJournal _journal;
     
     public DiceRollerLogic() {
-        _tokenizer = new Tokenizer();
-        _tokenizer.addRule(Pattern.compile("[Dd]\\d+"), DICE);
-        _tokenizer.addRule(Pattern.compile("\\d+"), NUMBER);
-        _tokenizer.addRule(Pattern.compile("[,\\=\\(\\)\\.]"), LITERAL);
-        _tokenizer.addRule(Pattern.compile("[\\+\\-]"), ARITHOP);
-        _tokenizer.addRule(Pattern.compile("[\\/\\*]"), FACTOROP);
-        _tokenizer.addRule(Pattern.compile("[\\s+]"), WHITESPACE);
-        _tokenizer.addRule(Pattern.compile("[a-zA-Z]+"), CHARSEQUENCE);
-        
-        _parser = new DiceLanguageParser();
+        this(DiceRandomSource.threadLocal());
+    }
+
+    public DiceRollerLogic(DiceRandomSource rnd) {
+        this(rnd, DEFAULT_CACHE_SIZE);
+    }
+
+    public DiceRollerLogic(DiceRandomSource rnd, int cacheSize) {
+        _lexer = new Lexer();
+        _parser = DiceLanguageParser.grammar();
+        _cache = new LruCache<>(cacheSize);
+        _interpreter = ThreadLocal.withInitial(() -> new Interpreter(split(rnd), newEnvironment()));
+        _metrics = RollMetrics.shared();
+        _journal = RollJournal.configured();
     }
     
     public String evaluate(String expString) {
+        RollResult result = evaluate(expString, false);
+        long start = _metrics.start();
+        String text = result.toString();
+        _metrics.record(RENDER, start);
+        return text;
+    }
+
+    // Rolls the expression and returns the result without formatting it.
+    // When recordDice is set every die rolled is kept in the result as well.
+    public RollResult evaluate(String expString, boolean recordDice) {
+        return evaluate(expString, _interpreter.get(), recordDice);
+    }
+
+    // As above, rolling with the given interpreter.
+    public RollResult evaluate(String expString, Interpreter interpreter, boolean recordDice) {
+        CompiledExpression compiled = compile(expString);
+        if (compiled == null) {
+            return RollResult.failure(null, "String can't be parsed.");
+        }
+        try {
+            IntVector dice = recordDice ? new IntVector() : null;
+            return RollResult.of(compiled, roll(compiled, interpreter, dice), dice);
+        } catch (ArithmeticException exception) {
+            return RollResult.failure(compiled, "Division by zero.");
+        } catch (Environment.UnboundException exception) {
+            return RollResult.failure(compiled, exception.getMessage());
+        }
+    }
+
+    // Rolls the expression and returns its values, or null if it can't be
+    // parsed. The vector is reused by the next roll on the same thread.
+    public IntVector roll(String expString) {
+        CompiledExpression compiled = compile(expString);
+        return compiled == null ? null : roll(compiled, _interpreter.get());
+    }
+
+    // Rolls a compiled expression with the given interpreter, which lets
+    // several threads share this logic and its cache.
+    public IntVector roll(CompiledExpression compiled, Interpreter interpreter) {
+        return roll(compiled, interpreter, null);
+    }
+
+    // As above, appending every die rolled to dice unless it is null.
+    public IntVector roll(CompiledExpression compiled, Interpreter interpreter, IntVector dice) {
+        _metrics.countRoll();
+        long start = _metrics.start();
+        RollJournal journal = _journal;
+        IntVector values;
+        if (journal != null) {
+            values = journaled(journal, compiled, interpreter, dice);
+        } else {
+            values = dice == null
+                    ? interpreter.run(compiled.program())
+                    : interpreter.run(compiled.program(), dice);
+        }
+        _metrics.record(EVALUATE, start);
+        return values;
+    }
+
+    // Rolls from a seed of its own and journals the roll with the seed and
+    // the variables it reads. Rolls that fail are journaled as well.
+    private IntVector journaled(RollJournal journal, CompiledExpression compiled,
+            Interpreter interpreter, IntVector dice) {
+        long seed = ThreadLocalRandom.current().nextLong();
+        Program program = compiled.program();
+        int[] code = program.code();
+        Environment environment = interpreter.environment();
+        int[] bound = environment.slots(program);
+        IntVector slots = new IntVector();
+        for (int pc = 0; pc < code.length; pc += 1 + Program.operandCount(code[pc])) {
+            if (code[pc] == Program.LOAD && environment.isBound(bound[code[pc + 1]])
+                    && !contains(slots, code[pc + 1])) {
+                slots.add(code[pc + 1]);
+            }
+        }
+        String[] names = new String[slots.size()];
+        int[] variables = new int[slots.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = program.variable(slots.get(i));
+            variables[i] = environment.get(bound[slots.get(i)]);
+        }
+
+        int firstDie = dice == null ? 0 : dice.size();
+        IntVector values;
+        try {
+            values = interpreter.run(program, DiceRandomSource.seeded(seed), dice);
+        } catch (ArithmeticException | Environment.UnboundException exception) {
+            journal.append(new RollJournal.Entry(System.currentTimeMillis(), seed,
+                    compiled.source(), names, variables, null, null,
+                    RollJournal.describe(exception)));
+            throw exception;
+        }
+        int[] rolled = null;
+        if (dice != null) {
+            rolled = new int[dice.size() - firstDie];
+            for (int i = 0; i < rolled.length; i++) {
+                rolled[i] = dice.get(firstDie + i);
+            }
+        }
+        journal.append(new RollJournal.Entry(System.currentTimeMillis(), seed,
+                compiled.source(), names, variables, values.toArray(), rolled, null));
+        return values;
+    }
+
+    private static boolean contains(IntVector vector, int value) {
+        for (int i = 0; i < vector.size(); i++) {
+            if (vector.get(i) == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns the parsed and compiled expression, from the cache if it has
+    // been seen recently, or null if it can't be parsed.
+    public CompiledExpression compile(String expString) {
+        return _cache.get(normalize(expString), this::parse);
+    }
+
+    private CompiledExpression parse(String expString) {
+        long start = _metrics.start();
+        ArrayList<Token> tokens;
         try {
-            ArrayList<Token> tokens = _tokenizer.tokenize(expString);
-            
-            LinkedList<String> lst = new LinkedList<>();
-            tokens.stream().forEach((t) -> {
-                lst.add((new Pair<>(t.Literal(), t.Token())).toString());
-            });
-            
-            Expression exp = _parser.parse(tokens);
-            ArrayList<Integer> lst2 = exp.evaluate();
-            
-            return lst.toString() + "\n" + lst2.toString();
+            tokens = _lexer.tokenize(expString);
         } catch (Tokenizer.TokenizerException exception) {
-            return "String can't be parsed.";
+            _metrics.countTokenizerFailure();
+            return null;
+        }
+        _metrics.record(TOKENIZE, start);
+
+        start = _metrics.start();
+        Expression exp = _parser.parse(tokens);
+        if (exp == null) {
+            _metrics.countParseFailure();
+            return null;
+        }
+        exp = exp.optimize();
+        CompiledExpression compiled = new CompiledExpression(expString, tokens, exp,
+                ExpressionCompiler.compile(exp));
+        _metrics.record(PARSE, start);
+        return compiled;
+    }
+
+    // The source for a thread's interpreter. Other sources than the thread
+    // local one can't be shared, so each thread rolls with a split of it.
+    private static DiceRandomSource split(DiceRandomSource rnd) {
+        if (rnd == DiceRandomSource.threadLocal()) {
+            return rnd;
+        }
+        synchronized (rnd) {
+            return rnd.split();
+        }
+    }
+
+    // Trims the expression and collapses runs of whitespace, which never
+    // change what an expression means, so they share a cache entry.
+    static String normalize(String expString) {
+        StringBuilder sb = new StringBuilder(expString.length());
+        boolean space = false;
+        for (int i = 0; i < expString.length(); i++) {
+            char c = expString.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
         }
+        return expString.contentEquals(sb) ? expString : sb.toString();
+    }
+
+    // A fresh set of variables for a session, to roll with through an
+    // Interpreter of its own. Rolls made without an interpreter keep their
+    // variables in a session of the calling thread.
+    public Environment newEnvironment() {
+        return new Environment();
+    }
+
+    // The journal rolls are written to, or null.
+    public RollJournal journal() {
+        return _journal;
+    }
+
+    public void setJournal(RollJournal journal) {
+        _journal = journal;
+    }
+
+    public LruCache<String, CompiledExpression> cache() {
+        return _cache;
+    }
+
+    public RollMetrics metrics() {
+        return _metrics;
+    }
+
+    // Exact distribution of each result of the expression, or null if it
+    // can't be parsed.
+    public ArrayList<Distribution> analyze(String expString) {
+        CompiledExpression compiled = compile(expString);
+        return compiled == null ? null : Distribution.analyze(compiled.program());
+    }
+
+    // Rolls the expression trials times on all cores. The same seed gives
+    // the same result. Returns null if the expression can't be parsed.
+    public SimulationResult simulate(String expString, long trials, long seed) {
+        return simulate(expString, trials, seed, null);
+    }
+
+    // As above, passing the number of trials done so far to progress.
+    public SimulationResult simulate(String expString, long trials, long seed,
+            LongConsumer progress) {
+        CompiledExpression compiled = compile(expString);
+        return compiled == null ? null : Simulation.run(compiled.program(), trials, seed,
+                ForkJoinPool.commonPool(), progress);
+    }
+
+    // Starts simulating the expression on all cores and returns at once, so
+    // the statistics can be looked at while it runs. Returns null if the
+    // expression can't be parsed.
+    public Simulation startSimulation(String expString, long trials, long seed) {
+        CompiledExpression compiled = compile(expString);
+        return compiled == null ? null : Simulation.start(compiled.program(), trials, seed,
+                ForkJoinPool.commonPool(), null);
     }
 }
@@ -0,0 +1,464 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+import static NSDiceApp.Program.*;
+
+/**
+ * Exact probability mass function of an integer valued random variable.
+ *
+ * Distributions are immutable and store the probability of every value from
+ * min() to max() in a single array. They can be combined with the same
+ * operations as the dice language, and {@link #analyze(Program)} computes
+ * the distribution of every result of a compiled expression without rolling
+ * it.
+ *
+ * Sums of large dice pools are built by repeated squaring, and big
+ * convolutions go through a fast Fourier transform. Probabilities that fall
+ * below the rounding noise of the transform, around 1e-15 of the most likely
+ * value, are dropped. Analysis stops with a CancellationException once its
+ * thread has been interrupted.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class Distribution {
+
+    private static final int DIRECT_CONVOLUTION_LIMIT = 1 << 20;
+    private static final double FFT_NOISE = 1e-15;
+    private static final int MAX_WIDTH = 1 << 26;
+    private static final long MAX_PAIRS = 1L << 28;
+
+    private final int _min;
+    private final double[] _p;
+
+    private Distribution(int min, double[] p) {
+        _min = min;
+        _p = p;
+    }
+
+    public static Distribution constant(int value) {
+        return new Distribution(value, new double[]{1.0});
+    }
+
+    // A roll of a die with faces sides, numbered from 1.
+    public static Distribution uniform(int faces) {
+        if (faces <= 0) {
+            throw new IllegalArgumentException("A die needs at least one face");
+        }
+        if (faces > MAX_WIDTH) {
+            throw new IllegalArgumentException("Distribution is too wide");
+        }
+        double[] p = new double[faces];
+        Arrays.fill(p, 1.0 / faces);
+        return new Distribution(1, p);
+    }
+
+    public int min() {
+        return _min;
+    }
+
+    public int max() {
+        return _min + _p.length - 1;
+    }
+
+    public double probability(int value) {
+        long index = (long) value - _min;
+        return index < 0 || index >= _p.length ? 0.0 : _p[(int) index];
+    }
+
+    public double atMost(int value) {
+        double sum = 0.0;
+        int end = (int) Math.min((long) value - _min + 1, _p.length);
+        for (int i = 0; i < end; i++) {
+            sum += _p[i];
+        }
+        return sum;
+    }
+
+    public double atLeast(int value) {
+        double sum = 0.0;
+        for (int i = (int) Math.max((long) value - _min, 0); i < _p.length; i++) {
+            sum += _p[i];
+        }
+        return sum;
+    }
+
+    public double mean() {
+        double sum = 0.0;
+        for (int i = 0; i < _p.length; i++) {
+            sum += _p[i] * i;
+        }
+        return _min + sum;
+    }
+
+    public double variance() {
+        double mean = mean() - _min;
+        double sum = 0.0;
+        for (int i = 0; i < _p.length; i++) {
+            sum += _p[i] * (i - mean) * (i - mean);
+        }
+        return sum;
+    }
+
+    public double standardDeviation() {
+        return Math.sqrt(variance());
+    }
+
+    public boolean isConstant() {
+        return _p.length == 1;
+    }
+
+    public Distribution add(Distribution other) {
+        return new Distribution(_min + other._min, convolve(_p, other._p)).trimmed();
+    }
+
+    public Distribution negate() {
+        double[] p = new double[_p.length];
+        for (int i = 0; i < p.length; i++) {
+            p[i] = _p[_p.length - 1 - i];
+        }
+        return new Distribution(-max(), p);
+    }
+
+    public Distribution subtract(Distribution other) {
+        return add(other.negate());
+    }
+
+    public Distribution multiply(Distribution other) {
+        return combine(other, MUL);
+    }
+
+    public Distribution divide(Distribution other) {
+        if (other.probability(0) > 0.0) {
+            throw new ArithmeticException("/ by zero");
+        }
+        return combine(other, DIV);
+    }
+
+    // Sum of count independent copies of this distribution.
+    public Distribution times(int count) {
+        Distribution result = constant(0);
+        Distribution power = this;
+        while (count > 0) {
+            checkCancelled();
+            if ((count & 1) != 0) {
+                result = result.add(power);
+            }
+            count >>>= 1;
+            if (count > 0) {
+                power = power.add(power);
+            }
+        }
+        return result;
+    }
+
+    // Sum of independent copies of this distribution, as many as a roll of
+    // count says. Counts below one give zero.
+    public Distribution repeat(Distribution count) {
+        if (count.isConstant()) {
+            return times(count._min);
+        }
+        double[] p = new double[0];
+        int min = 0;
+        double zero = count.atMost(0);
+        Distribution sum = constant(0);
+        for (int k = 1; k <= count.max(); k++) {
+            // Wide counts take long, let them be given up on.
+            checkCancelled();
+            sum = sum.add(this);
+            double weight = count.probability(k);
+            if (weight == 0.0) {
+                continue;
+            }
+            if (p.length == 0) {
+                min = Math.min(0, sum._min);
+                p = new double[Math.max(sum.max(), 0) - min + 1];
+            } else if (sum.max() - min >= p.length || sum._min < min) {
+                int newMin = Math.min(min, sum._min);
+                int newMax = Math.max(min + p.length - 1, sum.max());
+                double[] grown = new double[newMax - newMin + 1];
+                System.arraycopy(p, 0, grown, min - newMin, p.length);
+                p = grown;
+                min = newMin;
+            }
+            for (int i = 0; i < sum._p.length; i++) {
+                p[sum._min - min + i] += weight * sum._p[i];
+            }
+        }
+        if (p.length == 0) {
+            return constant(0);
+        }
+        p[-min] += zero;
+        return new Distribution(min, p).trimmed();
+    }
+
+    private Distribution combine(Distribution other, int opcode) {
+        // Products and quotients are extreme at the corners, or for
+        // quotients next to zero, so the bounds are known without a pass.
+        int aMax = max();
+        int bMin = other._min;
+        int bMax = other.max();
+        int[] divisors = {bMin, bMax, -1, 1};
+        int divisorCount = opcode == MUL ? 2 : bMin <= -1 && bMax >= 1 ? 4 : 2;
+        long lo = Long.MAX_VALUE;
+        long hi = Long.MIN_VALUE;
+        for (int left : new int[] {_min, aMax}) {
+            for (int k = 0; k < divisorCount; k++) {
+                if (divisors[k] == 0) {
+                    continue;
+                }
+                long value = apply(opcode, left, divisors[k]);
+                lo = Math.min(lo, value);
+                hi = Math.max(hi, value);
+            }
+        }
+        if (hi - lo >= MAX_WIDTH || lo < Integer.MIN_VALUE || hi > Integer.MAX_VALUE
+                || (long) _p.length * other._p.length > MAX_PAIRS) {
+            throw new IllegalArgumentException("Distribution is too wide");
+        }
+        double[] p = new double[(int) (hi - lo + 1)];
+        for (int i = 0; i < _p.length; i++) {
+            if (_p[i] == 0.0) {
+                continue;
+            }
+            checkCancelled();
+            for (int j = 0; j < other._p.length; j++) {
+                double weight = _p[i] * other._p[j];
+                if (weight != 0.0) {
+                    p[(int) (apply(opcode, _min + i, other._min + j) - lo)] += weight;
+                }
+            }
+        }
+        return new Distribution((int) lo, p).trimmed();
+    }
+
+    private static long apply(int opcode, int left, int right) {
+        return opcode == MUL ? (long) left * right : left / right;
+    }
+
+    // Analysis of wide distributions can take long, so it stops once its
+    // thread has been interrupted.
+    private static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Analysis cancelled");
+        }
+    }
+
+    // Drops zero probabilities at both ends.
+    private Distribution trimmed() {
+        int start = 0;
+        int end = _p.length;
+        while (start < end - 1 && _p[start] == 0.0) {
+            start++;
+        }
+        while (end > start + 1 && _p[end - 1] == 0.0) {
+            end--;
+        }
+        if (start == 0 && end == _p.length) {
+            return this;
+        }
+        return new Distribution(_min + start, Arrays.copyOfRange(_p, start, end));
+    }
+
+    private static double[] convolve(double[] a, double[] b) {
+        if (a.length + b.length - 1 > MAX_WIDTH) {
+            throw new IllegalArgumentException("Distribution is too wide");
+        }
+        if (Math.min(a.length, b.length) <= 64
+                || (long) a.length * b.length <= DIRECT_CONVOLUTION_LIMIT) {
+            return convolveDirect(a, b);
+        }
+        return convolveFft(a, b);
+    }
+
+    private static double[] convolveDirect(double[] a, double[] b) {
+        double[] c = new double[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++) {
+            double ai = a[i];
+            if (ai == 0.0) {
+                continue;
+            }
+            checkCancelled();
+            for (int j = 0; j < b.length; j++) {
+                c[i + j] += ai * b[j];
+            }
+        }
+        return c;
+    }
+
+    private static double[] convolveFft(double[] a, double[] b) {
+        int length = a.length + b.length - 1;
+        int n = Integer.highestOneBit(length - 1) << 1;
+        double[] re = new double[n];
+        double[] im = new double[n];
+        // Pack both inputs into one transform, a as the real and b as the
+        // imaginary part, and separate their spectra afterwards.
+        System.arraycopy(a, 0, re, 0, a.length);
+        System.arraycopy(b, 0, im, 0, b.length);
+        fft(re, im, false);
+
+        double[] pr = new double[n];
+        double[] pi = new double[n];
+        for (int k = 0; k < n; k++) {
+            int m = (n - k) & (n - 1);
+            double ar = (re[k] + re[m]) / 2;
+            double ai = (im[k] - im[m]) / 2;
+            double br = (im[k] + im[m]) / 2;
+            double bi = (re[m] - re[k]) / 2;
+            pr[k] = ar * br - ai * bi;
+            pi[k] = ar * bi + ai * br;
+        }
+        fft(pr, pi, true);
+
+        double[] c = Arrays.copyOf(pr, length);
+        double max = 0.0;
+        for (double v : c) {
+            max = Math.max(max, v);
+        }
+        double floor = max * FFT_NOISE;
+        for (int i = 0; i < length; i++) {
+            if (c[i] < floor) {
+                c[i] = 0.0;
+            }
+        }
+        return c;
+    }
+
+    // In place iterative radix 2 transform, n must be a power of two.
+    private static void fft(double[] re, double[] im, boolean inverse) {
+        int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int len = 2; len <= n; len <<= 1) {
+            double angle = 2 * Math.PI / len * (inverse ? 1 : -1);
+            int half = len >> 1;
+            checkCancelled();
+            for (int k = 0; k < half; k++) {
+                double wr = Math.cos(angle * k);
+                double wi = Math.sin(angle * k);
+                for (int i = k; i < n; i += len) {
+                    int j = i + half;
+                    double xr = re[j] * wr - im[j] * wi;
+                    double xi = re[j] * wi + im[j] * wr;
+                    re[j] = re[i] - xr;
+                    im[j] = im[i] - xi;
+                    re[i] += xr;
+                    im[i] += xi;
+                }
+            }
+        }
+        if (inverse) {
+            for (int i = 0; i < n; i++) {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
+
+    // Distribution of each result of the program, in order. Programs that
+    // read variables can't be analyzed, since a variable is the same roll
+    // every time it is used.
+    public static ArrayList<Distribution> analyze(Program program) {
+        ArrayList<Distribution> results = new ArrayList<>(program.resultCount());
+        ArrayList<Distribution> stack = new ArrayList<>(program.maxStack());
+        analyze(program.code(), 0, program.length(), stack, results);
+        return results;
+    }
+
+    private static void analyze(int[] code, int pc, int end,
+            ArrayList<Distribution> stack, ArrayList<Distribution> results) {
+        while (pc < end) {
+            checkCancelled();
+            int opcode = code[pc];
+            switch (opcode) {
+                case PUSH:
+                    stack.add(constant(code[pc + 1]));
+                    break;
+                case ROLL:
+                    stack.add(uniform(code[pc + 1]));
+                    break;
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV: {
+                    Distribution right = stack.remove(stack.size() - 1);
+                    Distribution left = stack.remove(stack.size() - 1);
+                    stack.add(opcode == ADD ? left.add(right)
+                            : opcode == SUB ? left.subtract(right)
+                            : opcode == MUL ? left.multiply(right)
+                            : left.divide(right));
+                    break;
+                }
+                case REPEAT: {
+                    int body = pc + 2;
+                    int bodyEnd = body + code[pc + 1];
+                    Distribution count = stack.remove(stack.size() - 1);
+                    analyze(code, body, bodyEnd, stack, results);
+                    Distribution once = stack.remove(stack.size() - 1);
+                    stack.add(once.repeat(count));
+                    pc = bodyEnd;
+                    continue;
+                }
+                case POOL: {
+                    Distribution count = stack.remove(stack.size() - 1);
+                    stack.add(uniform(code[pc + 1]).repeat(count));
+                    break;
+                }
+                case CONCAT:
+                    results.add(stack.remove(stack.size() - 1));
+                    break;
+                case STORE:
+                    break;
+                case LOAD:
+                    throw new IllegalArgumentException("Expressions using variables can't be analyzed");
+                default:
+                    throw new IllegalStateException("Unknown opcode " + opcode);
+            }
+            pc += 1 + operandCount(opcode);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d..%d, mean %.4f, sd %.4f]",
+                min(), max(), mean(), standardDeviation());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.Arrays;
+
+/**
+ * Values of the variables of one session, indexed by slot.
+ *
+ * An environment keeps its values between rolls, so a later expression can
+ * use what an earlier one assigned. Its slots are numbered by name in a
+ * {@link SymbolTable} of its own, and a program's variables are matched to
+ * them by name when it is run. An environment must not be used by more
+ * than one thread at a time.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class Environment {
+
+    /**
+     * Thrown when a variable is used before anything has been assigned to
+     * it.
+     */
+    public static class UnboundException extends RuntimeException {
+
+        private final int _slot;
+
+        public UnboundException(int slot, String message) {
+            super(message);
+            _slot = slot;
+        }
+
+        public int slot() {
+            return _slot;
+        }
+    }
+
+    /**
+     * Slots of some variables in the table of one environment. Programs and
+     * variable nodes keep the binding they were last run with, so names are
+     * only looked up again when they run in an environment with another
+     * table.
+     */
+    public static final class Binding {
+
+        private final SymbolTable _symbols;
+        private final int[] _slots;
+
+        private Binding(SymbolTable symbols, int[] slots) {
+            _symbols = symbols;
+            _slots = slots;
+        }
+
+        public int slot(int index) {
+            return _slots[index];
+        }
+    }
+
+    private static final int[] NO_VALUES = new int[0];
+    private static final boolean[] NONE_BOUND = new boolean[0];
+
+    private SymbolTable _symbols;
+    private int[] _values;
+    private boolean[] _bound;
+
+    public Environment() {
+        _symbols = new SymbolTable();
+        _values = NO_VALUES;
+        _bound = NONE_BOUND;
+    }
+
+    // The slot of the variable called name, giving it one if it has none.
+    public int slot(String name) {
+        return _symbols.slot(name);
+    }
+
+    public String name(int slot) {
+        return _symbols.name(slot);
+    }
+
+    // The slot here of each variable of the program, indexed by the
+    // program's own slots. The names are only looked up the first time the
+    // program runs in an environment with this table.
+    public int[] slots(Program program) {
+        Binding binding = program.binding();
+        if (binding == null || binding._symbols != _symbols) {
+            int[] slots = new int[program.variableCount()];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = _symbols.slot(program.variable(i));
+            }
+            binding = new Binding(_symbols, slots);
+            program.setBinding(binding);
+        }
+        return binding._slots;
+    }
+
+    // Binding of the single variable called name, which is binding itself if
+    // it was made for this environment's table.
+    public Binding bind(Binding binding, String name) {
+        if (binding == null || binding._symbols != _symbols) {
+            binding = new Binding(_symbols, new int[] {_symbols.slot(name)});
+        }
+        return binding;
+    }
+
+    public int get(int slot) {
+        if (slot >= _bound.length || !_bound[slot]) {
+            throw new UnboundException(slot, "Unknown name " + _symbols.name(slot) + ".");
+        }
+        return _values[slot];
+    }
+
+    public void set(int slot, int value) {
+        if (slot >= _values.length) {
+            int length = Math.max(slot + 1, Math.max(16, _values.length * 2));
+            _values = Arrays.copyOf(_values, length);
+            _bound = Arrays.copyOf(_bound, length);
+        }
+        _values[slot] = value;
+        _bound[slot] = true;
+    }
+
+    public boolean isBound(int slot) {
+        return slot < _bound.length && _bound[slot];
+    }
+
+    // Forgets every variable, names included.
+    public void clear() {
+        Arrays.fill(_bound, false);
+        _symbols = new SymbolTable();
+    }
+}
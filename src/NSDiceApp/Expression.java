@@ -23,44 +23,80 @@
  */
 package NSDiceApp;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
+ * A node of a parsed expression.
+ *
+ * A node doesn't copy the tokens it was parsed from, it only knows where
+ * they start and end in the token array of the parse that made it. Nodes
+ * reused from an earlier parse keep pointing at that parse's array, which
+ * holds the same tokens over their span, so a parent always takes its span
+ * from its own parse rather than from its children.
  *
  * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
  */
 public abstract class Expression implements Cloneable {
 
+    private static final Token[] NO_TOKENS = new Token[0];
+    private static final Expression[] NO_CHILDREN = new Expression[0];
 
-    private ArrayList<Expression> _children;
-    private ArrayList<Token> _tokens;
+    private Expression[] _children;
+    private Token[] _source;
+    private int _start;
+    private int _end;
+    // The number of levels from here down to the deepest leaf.
+    private int _height = 1;
     
     public static Expression makeCopy(Expression e) throws CloneNotSupportedException {
-        Expression expCln = (Expression) e.clone();
-        expCln._children = new ArrayList<>();
-        expCln._tokens = new ArrayList<>();
-        return expCln;
+        return (Expression) e.clone();
     }
 
     public Expression() {
-        _children = new ArrayList<>();
-        _tokens = new ArrayList<>();
+        _children = NO_CHILDREN;
+        _source = NO_TOKENS;
+    }
+
+    // Makes the node stand for tokens from start up to but not including
+    // end.
+    public void setSpan(Token[] tokens, int start, int end) {
+        _source = tokens;
+        _start = start;
+        _end = end;
     }
 
-    public void addToken(Token t) {
-        _tokens.add(t);
+    // Gives the node the same tokens as other.
+    public void setSpan(Expression other) {
+        setSpan(other._source, other._start, other._end);
     }
     
-    public void setChildren(ArrayList<Expression> children) {
-        _children = children;
-        _children.stream().forEach((e) -> {
-            _tokens.addAll(e.getTokens());
-        });
+    // Ignored expressions, such as matched literals, are not kept as
+    // children. The span is set separately, see setSpan.
+    public void setChildren(List<Expression> children) {
+        int kept = 0;
+        for (Expression e : children) {
+            if (!e.shouldIgnore()) {
+                kept++;
+            }
+        }
+        _children = kept == 0 ? NO_CHILDREN : new Expression[kept];
+        _height = 1;
+        kept = 0;
+        for (Expression e : children) {
+            if (!e.shouldIgnore()) {
+                _children[kept++] = e;
+                _height = Math.max(_height, e._height + 1);
+            }
+        }
+    }
+
+    public int height() {
+        return _height;
     }
     
     public Expression getChildAt(int index) {
-        return _children.get(index);
+        return _children[index];
     }
 
     // Override this if dummy expressions are desired.
@@ -68,24 +104,102 @@ public abstract class Expression implements Cloneable {
         return false;
     }
 
-    public ArrayList<Token> getTokens() {
-        return _tokens;
+    public int tokenCount() {
+        return _end - _start;
+    }
+
+    public Token token(int index) {
+        return _source[_start + index];
+    }
+
+    // The tokens of the expression, as a view of the shared array.
+    public List<Token> getTokens() {
+        return Arrays.asList(_source).subList(_start, _end);
+    }
+
+    // Expressions that always produce a single value override
+    // evaluateScalar, which lets their parents use the value without
+    // wrapping it in a vector, and get evaluate from it. Lists of more than
+    // one value override evaluate and have no single value. Variables are
+    // read from and assigned to environment.
+    public IntVector evaluate(Environment environment) {
+        return IntVector.of(evaluateScalar(environment));
+    }
+
+    public int evaluateScalar(Environment environment) {
+        throw new UnsupportedOperationException("Expression has no single value");
+    }
+
+    // Evaluates the expression in an environment of its own, where nothing
+    // is assigned yet.
+    public IntVector evaluate() {
+        return evaluate(new Environment());
     }
 
-    public abstract ArrayList<Integer> evaluate();
+    public int evaluateScalar() {
+        return evaluateScalar(new Environment());
+    }
+
+    // Emits instructions that leave the value of the expression on the stack.
+    public void compile(ExpressionCompiler compiler) {
+        throw new UnsupportedOperationException("Expression can't be compiled");
+    }
     
-    public ArrayList<Integer> makeList(Integer... nums) {
-        return new ArrayList<>(Arrays.asList(nums));
+    // Returns a simpler expression with the same value, or this one. The
+    // default simplifies the children in place. Expressions that don't roll
+    // anything should become constants, see isConstant.
+    public Expression optimize() {
+        for (int i = 0; i < _children.length; i++) {
+            _children[i] = _children[i].optimize();
+        }
+        return this;
+    }
+
+    // True if evaluating the expression always gives the same single value
+    // without rolling anything.
+    public boolean isConstant() {
+        return false;
+    }
+
+    public IntVector makeList(int... nums) {
+        return IntVector.of(nums);
     }
     
     public int result(int index) {
-        return _children.get(index).evaluate().get(0);
+        return _children[index].evaluateScalar();
+    }
+
+    public int result(int index, Environment environment) {
+        return _children[index].evaluateScalar(environment);
     }
     
+    // An expression with a known value, standing in for the tokens of the
+    // expression it was folded from.
+    public static Expression constant(int value, Expression folded) {
+        Expression e = new Expression() {
+            @Override
+            public int evaluateScalar(Environment environment) {
+                return value;
+            }
+
+            @Override
+            public void compile(ExpressionCompiler compiler) {
+                compiler.push(value);
+            }
+
+            @Override
+            public boolean isConstant() {
+                return true;
+            }
+        };
+        e.setSpan(folded);
+        return e;
+    }
+
     public static Expression dummy() {
         return new Expression() {
                 @Override
-                public ArrayList<Integer> evaluate() {
+                public IntVector evaluate(Environment environment) {
                     throw new UnsupportedOperationException("Literals should not be parsed");
                 }
                 
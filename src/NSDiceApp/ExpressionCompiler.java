@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.Arrays;
+
+import static NSDiceApp.Program.*;
+
+/**
+ * Lowers a parsed expression tree into a {@link Program}.
+ *
+ * Expressions emit their own instructions through
+ * {@link Expression#compile(ExpressionCompiler)}, children first, so the
+ * compiler only has to keep track of the code and the stack depth.
+ * Variables are numbered in the order they first appear, and the program
+ * keeps their names, so it doesn't depend on anything else being compiled.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class ExpressionCompiler {
+
+    private final SymbolTable _symbols;
+    private int[] _code;
+    private int _length;
+    private int _depth;
+    private int _maxDepth;
+    private int _resultCount;
+    private int _repeatDepth;
+
+    public ExpressionCompiler() {
+        _symbols = new SymbolTable();
+        _code = new int[16];
+    }
+
+    public static Program compile(Expression expression) {
+        ExpressionCompiler compiler = new ExpressionCompiler();
+        expression.compile(compiler);
+        return compiler.toProgram();
+    }
+
+    public Program toProgram() {
+        return new Program(Arrays.copyOf(_code, _length), _maxDepth, _resultCount,
+                _symbols.names());
+    }
+
+    private void append(int value) {
+        if (_length == _code.length) {
+            _code = Arrays.copyOf(_code, _length * 2);
+        }
+        _code[_length++] = value;
+    }
+
+    private void adjustDepth(int delta) {
+        _depth += delta;
+        _maxDepth = Math.max(_maxDepth, _depth);
+    }
+
+    public void push(int value) {
+        append(PUSH);
+        append(value);
+        adjustDepth(1);
+    }
+
+    public void roll(int faces) {
+        append(ROLL);
+        append(faces);
+        adjustDepth(1);
+    }
+
+    public int slot(String name) {
+        return _symbols.slot(name);
+    }
+
+    public void load(int slot) {
+        append(LOAD);
+        append(slot);
+        adjustDepth(1);
+    }
+
+    public void store(int slot) {
+        append(STORE);
+        append(slot);
+    }
+
+    // Emits one of the binary operations ADD, SUB, MUL and DIV, or CONCAT.
+    public void emit(int opcode) {
+        switch (opcode) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+                append(opcode);
+                adjustDepth(-1);
+                break;
+            case CONCAT:
+                if (_repeatDepth > 0) {
+                    throw new IllegalStateException("Results can't be repeated");
+                }
+                append(opcode);
+                adjustDepth(-1);
+                _resultCount++;
+                break;
+            default:
+                throw new IllegalArgumentException("Not a plain operation: " + opcode);
+        }
+    }
+
+    // Starts a repeated block, taking the count from the top of the stack.
+    // Returns a mark to pass to endRepeat once the body has been emitted.
+    public int beginRepeat() {
+        append(REPEAT);
+        append(0);
+        adjustDepth(-1);
+        _repeatDepth++;
+        return _length;
+    }
+
+    public void endRepeat(int mark) {
+        _repeatDepth--;
+        if (_length - mark == 2 && _code[mark] == ROLL) {
+            // A pool of plain dice, roll them in bulk.
+            int faces = _code[mark + 1];
+            _length = mark - 2;
+            append(POOL);
+            append(faces);
+        } else {
+            _code[mark - 1] = _length - mark;
+        }
+    }
+}
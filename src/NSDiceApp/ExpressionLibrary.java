@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Saved expressions, kept in a binary file.
+ *
+ * The file starts with a magic number, a version and the number of entries,
+ * followed by each entry's length and stored form, see {@link LibraryEntry}.
+ * Loading maps the file and only reads the names and sources, the compiled
+ * form of an entry is read when it is used. Saving writes a new file next to
+ * the old one and moves it into place. A file can't be replaced while it is
+ * mapped on every platform, so saving first copies the entries still in the
+ * old file onto the heap.
+ *
+ * Version 2 added variables. Entries of a version 1 file are read as having
+ * none, and the file is written as version 2 when it is next saved.
+ *
+ * A library must not be used by more than one thread at a time.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class ExpressionLibrary {
+
+    private static final int MAGIC = 0x4E53444C;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+
+    private final Path _path;
+    private final ArrayList<LibraryEntry> _entries;
+
+    private ExpressionLibrary(Path path, ArrayList<LibraryEntry> entries) {
+        _path = path;
+        _entries = entries;
+    }
+
+    // The library file, ~/.nsdice/library.bin unless the nsdice.library
+    // system property names another.
+    public static Path defaultPath() {
+        String path = System.getProperty("nsdice.library");
+        if (path != null) {
+            return Paths.get(path);
+        }
+        return Paths.get(System.getProperty("user.home"), ".nsdice", "library.bin");
+    }
+
+    // Loads the library at path, or an empty one if there is no file yet.
+    public static ExpressionLibrary load(Path path) throws IOException {
+        ArrayList<LibraryEntry> entries = new ArrayList<>();
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException ex) {
+            return new ExpressionLibrary(path, entries);
+        }
+        if (map.remaining() < HEADER_SIZE || map.getInt() != MAGIC) {
+            throw new IOException(path + " is not an expression library");
+        }
+        int version = map.getInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported library version " + version);
+        }
+        int count = map.getInt();
+        entries.ensureCapacity(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                int length = map.getInt();
+                ByteBuffer data = map.slice();
+                data.limit(length);
+                if (version == 1) {
+                    data = LibraryEntry.withoutVariables(data);
+                }
+                entries.add(new LibraryEntry(data));
+                map.position(map.position() + length);
+            }
+        } catch (RuntimeException ex) {
+            throw new IOException(path + " is damaged", ex);
+        }
+        return new ExpressionLibrary(path, entries);
+    }
+
+    public Path path() {
+        return _path;
+    }
+
+    public List<LibraryEntry> entries() {
+        return Collections.unmodifiableList(_entries);
+    }
+
+    public int size() {
+        return _entries.size();
+    }
+
+    // Adds an expression under name, summarizing its results. The library is
+    // not written until save is called.
+    public LibraryEntry add(String name, CompiledExpression compiled) {
+        List<Distribution> distributions;
+        try {
+            distributions = Distribution.analyze(compiled.program());
+        } catch (ArithmeticException | IllegalArgumentException ex) {
+            distributions = null;
+        }
+        LibraryEntry entry = new LibraryEntry(LibraryEntry.encode(name, compiled, distributions));
+        _entries.add(entry);
+        return entry;
+    }
+
+    public LibraryEntry remove(int index) {
+        return _entries.remove(index);
+    }
+
+    public void save() throws IOException {
+        _entries.forEach(LibraryEntry::copyToHeap);
+        Path parent = _path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = _path.resolveSibling(_path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(_entries.size()).flip();
+            write(channel, header);
+            ByteBuffer length = ByteBuffer.allocate(4);
+            for (LibraryEntry entry : _entries) {
+                ByteBuffer data = entry.data();
+                length.clear();
+                length.putInt(data.remaining()).flip();
+                write(channel, length);
+                write(channel, data);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, _path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileSystemException ex) {
+            // The old mapping is only released once it has been collected.
+            System.gc();
+            Files.move(temp, _path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
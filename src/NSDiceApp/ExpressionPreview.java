@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What is known about an expression while it is being typed: its tokens,
+ * whether it parses, and the range and expected value of each result.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class ExpressionPreview {
+
+    private static final int SUMMARY_RESULTS = 3;
+
+    private final String _source;
+    private final List<Token> _tokens;
+    private final Expression _expression;
+    private final int _errorPosition;
+    private final ArrayList<Distribution> _distributions;
+    private final int _reusedTokens;
+
+    public ExpressionPreview(String source, List<Token> tokens, Expression expression,
+            int errorPosition, ArrayList<Distribution> distributions, int reusedTokens) {
+        _source = source;
+        _tokens = tokens;
+        _expression = expression;
+        _errorPosition = errorPosition;
+        _distributions = distributions;
+        _reusedTokens = reusedTokens;
+    }
+
+    public String source() {
+        return _source;
+    }
+
+    // The tokens, with their offsets in the source. If a character could
+    // not be tokenized only the tokens before it are included.
+    public List<Token> tokens() {
+        return _tokens;
+    }
+
+    public boolean isValid() {
+        return _expression != null;
+    }
+
+    // Offset of the character that could not be tokenized, or -1.
+    public int errorPosition() {
+        return _errorPosition;
+    }
+
+    // Distribution of each result, or null if the expression is invalid or
+    // could not be analyzed.
+    public ArrayList<Distribution> distributions() {
+        return _distributions;
+    }
+
+    // How many tokens were carried over unchanged from the previous preview.
+    public int reusedTokens() {
+        return _reusedTokens;
+    }
+
+    // One line for the user: what is wrong, or the range and mean of the
+    // first few results.
+    public String summary() {
+        if (_errorPosition >= 0) {
+            return "Unknown character at " + (_errorPosition + 1) + ".";
+        }
+        if (_expression == null) {
+            return _tokens.isEmpty() ? "" : "String can't be parsed.";
+        }
+        if (_distributions == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < _distributions.size() && i < SUMMARY_RESULTS; i++) {
+            Distribution d = _distributions.get(i);
+            if (i > 0) {
+                sb.append("; ");
+            }
+            sb.append(d.min()).append("..").append(d.max())
+                    .append(String.format(", mean %.2f", d.mean()));
+        }
+        if (_distributions.size() > SUMMARY_RESULTS) {
+            sb.append("; ...");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, used for expression results instead of
+ * lists of boxed integers.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class IntVector {
+
+    private int[] _values;
+    private int _size;
+
+    public IntVector() {
+        this(4);
+    }
+
+    public IntVector(int capacity) {
+        _values = new int[Math.max(capacity, 1)];
+    }
+
+    public static IntVector of(int... values) {
+        IntVector vector = new IntVector(values.length);
+        System.arraycopy(values, 0, vector._values, 0, values.length);
+        vector._size = values.length;
+        return vector;
+    }
+
+    public static IntVector of(int value) {
+        IntVector vector = new IntVector();
+        vector._values[0] = value;
+        vector._size = 1;
+        return vector;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    public int get(int index) {
+        if (index >= _size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+        }
+        return _values[index];
+    }
+
+    public void add(int value) {
+        if (_size == _values.length) {
+            _values = Arrays.copyOf(_values, _size * 2);
+        }
+        _values[_size++] = value;
+    }
+
+    public void addAll(IntVector other) {
+        ensureCapacity(_size + other._size);
+        System.arraycopy(other._values, 0, _values, _size, other._size);
+        _size += other._size;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > _values.length) {
+            _values = Arrays.copyOf(_values, Math.max(capacity, _values.length * 2));
+        }
+    }
+
+    public void clear() {
+        _size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(_values, _size);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IntVector)) {
+            return false;
+        }
+        IntVector other = (IntVector) o;
+        if (other._size != _size) {
+            return false;
+        }
+        for (int i = 0; i < _size; i++) {
+            if (other._values[i] != _values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < _size; i++) {
+            hash = 31 * hash + _values[i];
+        }
+        return hash;
+    }
+
+    // Formats the values the same way as a java.util.List.
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(_size * 4 + 2);
+        sb.append('[');
+        for (int i = 0; i < _size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(_values[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
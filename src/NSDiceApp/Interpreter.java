@@ -0,0 +1,279 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleConsumer;
+
+import static NSDiceApp.Program.*;
+
+/**
+ * Runs compiled programs.
+ *
+ * The operand stack and the result buffer are kept between runs, so rolling
+ * the same program again allocates nothing. An interpreter must not be used
+ * by more than one thread at a time.
+ *
+ * Variables are read from and assigned to the interpreter's environment,
+ * which is kept between runs. The program's slots are looked up there by
+ * name once per run.
+ *
+ * Long rolls check every few thousand repetitions, and between chunks of
+ * large pools, whether their thread has been interrupted, and if so stop
+ * with a CancellationException. They also report how far they have come to
+ * the progress listener, if one is set.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class Interpreter {
+
+    private static final int POLL_MASK = (1 << 12) - 1;
+    private static final int POOL_CHUNK = 1 << 20;
+
+    private DiceRandomSource _rnd;
+    private final Environment _environment;
+    private int[] _slots;
+    private int[] _stack;
+    private int _top;
+    private final IntVector _results;
+    private IntVector _dice;
+    private DoubleConsumer _progress;
+    private int _resultCount;
+    private int _repeatDepth;
+    private int _outerDone;
+    private int _outerCount;
+    private int _ticks;
+
+    public Interpreter(DiceRandomSource rnd) {
+        this(rnd, new Environment());
+    }
+
+    public Interpreter(DiceRandomSource rnd, Environment environment) {
+        _rnd = rnd;
+        _environment = environment;
+        _stack = new int[16];
+        _results = new IntVector();
+    }
+
+    // Runs the program and returns its results. The returned vector belongs
+    // to the interpreter and is overwritten by the next run.
+    public IntVector run(Program program) {
+        if (_stack.length < program.maxStack()) {
+            _stack = new int[program.maxStack()];
+        }
+        _results.clear();
+        _results.ensureCapacity(program.resultCount());
+        _top = 0;
+        _resultCount = program.resultCount();
+        _repeatDepth = 0;
+        _outerCount = 0;
+        if (program.variableCount() > 0) {
+            _slots = _environment.slots(program);
+        }
+        execute(program.code(), 0, program.length());
+        return _results;
+    }
+
+    // Runs the program like run(Program), also appending every die rolled to
+    // dice in the order they were rolled.
+    public IntVector run(Program program, IntVector dice) {
+        _dice = dice;
+        try {
+            return run(program);
+        } finally {
+            _dice = null;
+        }
+    }
+
+    // Runs the program with rnd in place of the interpreter's own source,
+    // appending every die rolled to dice unless it is null.
+    public IntVector run(Program program, DiceRandomSource rnd, IntVector dice) {
+        DiceRandomSource own = _rnd;
+        _rnd = rnd;
+        try {
+            return dice == null ? run(program) : run(program, dice);
+        } finally {
+            _rnd = own;
+        }
+    }
+
+    public Environment environment() {
+        return _environment;
+    }
+
+    // The listener is called on the rolling thread with the fraction of the
+    // roll done so far, judged by the results and the outermost repetition.
+    public void setProgressListener(DoubleConsumer listener) {
+        _progress = listener;
+    }
+
+    private void poll() {
+        if (Thread.interrupted()) {
+            throw new CancellationException("Roll cancelled");
+        }
+        if (_progress != null) {
+            double outer = _outerCount > 0 ? (double) _outerDone / _outerCount : 0.0;
+            _progress.accept((_results.size() + outer) / Math.max(1, _resultCount));
+        }
+    }
+
+    protected int roll(int faces) {
+        return _rnd.roll(faces);
+    }
+
+    private void execute(int[] code, int pc, int end) {
+        int[] stack = _stack;
+        while (pc < end) {
+            switch (code[pc]) {
+                case PUSH:
+                    stack[_top++] = code[pc + 1];
+                    pc += 2;
+                    break;
+                case ROLL:
+                    stack[_top++] = roll(code[pc + 1]);
+                    if (_dice != null) {
+                        _dice.add(stack[_top - 1]);
+                    }
+                    pc += 2;
+                    break;
+                case ADD:
+                    _top--;
+                    stack[_top - 1] += stack[_top];
+                    pc++;
+                    break;
+                case SUB:
+                    _top--;
+                    stack[_top - 1] -= stack[_top];
+                    pc++;
+                    break;
+                case MUL:
+                    _top--;
+                    stack[_top - 1] *= stack[_top];
+                    pc++;
+                    break;
+                case DIV:
+                    _top--;
+                    stack[_top - 1] /= stack[_top];
+                    pc++;
+                    break;
+                case REPEAT: {
+                    int body = pc + 2;
+                    int bodyEnd = body + code[pc + 1];
+                    int count = stack[--_top];
+                    boolean outer = _repeatDepth++ == 0;
+                    if (outer) {
+                        _outerCount = count;
+                    }
+                    int sum = 0;
+                    for (int i = 0; i < count; i++) {
+                        if (outer) {
+                            _outerDone = i;
+                        }
+                        if ((++_ticks & POLL_MASK) == 0) {
+                            poll();
+                        }
+                        execute(code, body, bodyEnd);
+                        sum += stack[--_top];
+                    }
+                    _repeatDepth--;
+                    if (outer) {
+                        _outerCount = 0;
+                    }
+                    stack[_top++] = sum;
+                    pc = bodyEnd;
+                    break;
+                }
+                case POOL:
+                    stack[_top - 1] = _dice == null
+                            ? pool(code[pc + 1], stack[_top - 1])
+                            : recordedPool(code[pc + 1], stack[_top - 1]);
+                    pc += 2;
+                    break;
+                case CONCAT:
+                    _results.add(stack[--_top]);
+                    pc++;
+                    break;
+                case LOAD:
+                    stack[_top++] = _environment.get(_slots[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case STORE:
+                    _environment.set(_slots[code[pc + 1]], stack[_top - 1]);
+                    pc += 2;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[pc]);
+            }
+        }
+    }
+
+    // Sum of a pool. Pools too large for a single table are drawn a chunk of
+    // dice at a time, polling between the chunks.
+    private int pool(int faces, int count) {
+        if (count <= POOL_CHUNK || PoolSampler.fits(faces, count)) {
+            return PoolSampler.sum(_rnd, faces, count);
+        }
+        int chunks = (count - 1) / POOL_CHUNK + 1;
+        boolean outer = _repeatDepth == 0;
+        if (outer) {
+            _outerCount = chunks;
+        }
+        int sum = 0;
+        for (int i = 0; i < chunks; i++) {
+            if (outer) {
+                _outerDone = i;
+            }
+            poll();
+            sum += PoolSampler.sum(_rnd, faces, Math.min(POOL_CHUNK, count - i * POOL_CHUNK));
+        }
+        if (outer) {
+            _outerCount = 0;
+        }
+        return sum;
+    }
+
+    // Rolls a pool one die at a time so each die can be recorded.
+    private int recordedPool(int faces, int count) {
+        boolean outer = _repeatDepth == 0;
+        if (outer) {
+            _outerCount = count;
+        }
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            if ((++_ticks & POLL_MASK) == 0) {
+                if (outer) {
+                    _outerDone = i;
+                }
+                poll();
+            }
+            int die = roll(faces);
+            _dice.add(die);
+            sum += die;
+        }
+        if (outer) {
+            _outerCount = 0;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Rolls journaled entries again and checks that they give what they gave.
+ *
+ * The expression is parsed and compiled afresh, the variables it read are
+ * set to their journaled values, and it is rolled from the journaled seed.
+ * The results, the dice if they were recorded, or the error must all be the
+ * same as in the journal.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class JournalReplay {
+
+    private static final String USAGE = "Usage: --replay [--entry N] [--verbose] file";
+
+    private final DiceRollerLogic _logic;
+
+    public JournalReplay() {
+        _logic = new DiceRollerLogic();
+        // Replays are not rolls to journal.
+        _logic.setJournal(null);
+    }
+
+    public static void main(String[] args) {
+        long only = -1;
+        boolean verbose = false;
+        String file = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--entry":
+                        only = Long.parseLong(args[++i]);
+                        break;
+                    case "--verbose":
+                        verbose = true;
+                        break;
+                    default:
+                        if (file != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException(args[i]);
+                        }
+                        file = args[i];
+                }
+            }
+            if (file == null) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        JournalReplay replay = new JournalReplay();
+        long target = only;
+        boolean print = verbose || only >= 0;
+        long[] counts = new long[3];
+        try {
+            RollJournal.read(Paths.get(file), (entry) -> {
+                long index = counts[0]++;
+                if (target >= 0 && index != target) {
+                    return;
+                }
+                counts[1]++;
+                String replayed = replay.check(entry);
+                if (replayed != null) {
+                    counts[2]++;
+                    System.out.println(index + " MISMATCH " + entry);
+                    System.out.println(index + " replayed " + replayed);
+                } else if (print) {
+                    System.out.println(index + " OK " + entry);
+                }
+            });
+        } catch (IOException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(2);
+        }
+        if (target >= counts[0]) {
+            System.err.println("No entry " + target + ", the journal has " + counts[0]);
+            System.exit(2);
+        }
+        System.out.println(counts[1] + " replayed, " + counts[2] + " mismatched");
+        System.exit(counts[2] == 0 ? 0 : 1);
+    }
+
+    // Rolls the entry again. Returns null if it gives the same, otherwise a
+    // description of what it gave instead.
+    public String check(RollJournal.Entry entry) {
+        CompiledExpression compiled = _logic.compile(entry.expression());
+        if (compiled == null) {
+            return "String can't be parsed.";
+        }
+        Environment environment = _logic.newEnvironment();
+        String[] names = entry.names();
+        int[] variables = entry.variables();
+        for (int i = 0; i < names.length; i++) {
+            environment.set(environment.slot(names[i]), variables[i]);
+        }
+        Interpreter interpreter = new Interpreter(DiceRandomSource.threadLocal(), environment);
+        IntVector dice = entry.dice() == null ? null : new IntVector();
+
+        int[] values = null;
+        String error = null;
+        try {
+            values = interpreter.run(compiled.program(), DiceRandomSource.seeded(entry.seed()),
+                    dice).toArray();
+        } catch (ArithmeticException | Environment.UnboundException exception) {
+            error = RollJournal.describe(exception);
+        }
+        int[] rolled = dice == null ? null : dice.toArray();
+        if (Arrays.equals(values, entry.values()) && Arrays.equals(rolled, entry.dice())
+                && Objects.equals(error, entry.error())) {
+            return null;
+        }
+        return error != null ? error
+                : Arrays.toString(values) + (rolled == null ? "" : " dice " + Arrays.toString(rolled));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with buckets of bounded relative
+ * error, in the style of HdrHistogram.
+ *
+ * Every power of two is split into 16 linear buckets, so a recorded value is
+ * off by at most one sixteenth of itself. Recording is a few shifts and one
+ * atomic increment, and may happen from any number of threads.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) << SUB_BITS;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder _count = new LongAdder();
+    private final LongAdder _sum = new LongAdder();
+    private final AtomicLong _max = new AtomicLong();
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS)
+                + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >> SUB_BITS) - 1;
+        return (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+    }
+
+    private static long width(int index) {
+        return index < SUB_BUCKETS ? 1 : 1L << ((index >> SUB_BITS) - 1);
+    }
+
+    public void record(long nanos) {
+        _counts.incrementAndGet(indexOf(nanos));
+        _count.increment();
+        _sum.add(nanos);
+        long max = _max.get();
+        while (nanos > max && !_max.compareAndSet(max, nanos)) {
+            max = _max.get();
+        }
+    }
+
+    public long count() {
+        return _count.sum();
+    }
+
+    public double mean() {
+        long count = _count.sum();
+        return count == 0 ? 0.0 : (double) _sum.sum() / count;
+    }
+
+    public long max() {
+        return _max.get();
+    }
+
+    // Value below which the given fraction of the recorded values fall,
+    // reported as the middle of its bucket.
+    public long percentile(double fraction) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += _counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += _counts.get(i);
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(lowerBound(i) + width(i) / 2, max());
+            }
+        }
+        return max();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            _counts.set(i, 0);
+        }
+        _count.reset();
+        _sum.reset();
+        _max.set(0);
+    }
+
+    @Override
+    public long getCount() {
+        return count();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return mean() / 1000.0;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return percentile(0.5) / 1000.0;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return percentile(0.9) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return percentile(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return percentile(0.999) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max() / 1000.0;
+    }
+}
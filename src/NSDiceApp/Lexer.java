@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.ArrayList;
+
+import static NSDiceApp.TokenID.*;
+
+/**
+ * Single pass tokenizer for the dice language.
+ *
+ * Recognizes the same tokens as the regular expression rules that used to be
+ * registered on a {@link Tokenizer}, but walks the string once by index and
+ * decides what to scan from a character class table instead of trying every
+ * pattern at every position. Use a {@link Tokenizer} when custom rules are
+ * needed.
+ *
+ * Unlike those rules, the lexer refuses a die without faces such as d0, so
+ * it fails at the die's position instead of failing when it is rolled.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class Lexer {
+
+    private static final byte INVALID = 0;
+    private static final byte SPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte LETTER = 3;
+    private static final byte DIE = 4;
+    private static final byte PUNCTUATION = 5;
+    private static final byte ARITHMETIC = 6;
+    private static final byte FACTOR = 7;
+
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            CLASSES[c] = DIGIT;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASSES[c] = LETTER;
+            CLASSES[Character.toUpperCase(c)] = LETTER;
+        }
+        CLASSES['d'] = DIE;
+        CLASSES['D'] = DIE;
+        for (char c : " \t\n\u000B\f\r".toCharArray()) {
+            CLASSES[c] = SPACE;
+        }
+        for (char c : ",=().".toCharArray()) {
+            CLASSES[c] = PUNCTUATION;
+        }
+        CLASSES['+'] = ARITHMETIC;
+        CLASSES['-'] = ARITHMETIC;
+        CLASSES['*'] = FACTOR;
+        CLASSES['/'] = FACTOR;
+    }
+
+    private static byte classOf(char c) {
+        return c < CLASSES.length ? CLASSES[c] : INVALID;
+    }
+
+    private static int skip(String expression, int position, byte cls) {
+        int length = expression.length();
+        while (position < length && classOf(expression.charAt(position)) == cls) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int skipLetters(String expression, int position) {
+        int length = expression.length();
+        while (position < length) {
+            byte cls = classOf(expression.charAt(position));
+            if (cls != LETTER && cls != DIE) {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    public ArrayList<Token> tokenize(String expression)
+            throws Tokenizer.TokenizerException {
+
+        int length = expression.length();
+        ArrayList<Token> tokens = new ArrayList<>(length / 2 + 1);
+        int position = skipSpace(expression, 0);
+        while (position < length) {
+            position = skipSpace(expression, scan(expression, position, tokens));
+        }
+        return tokens;
+    }
+
+    // Index of the first character from position on that isn't white space.
+    static int skipSpace(String expression, int position) {
+        return skip(expression, position, SPACE);
+    }
+
+    // Scans the token starting at position, which must not be white space,
+    // adds it to tokens and returns the index after it. Scanning only looks
+    // at the token itself and the character after it, so it can be restarted
+    // at any token boundary.
+    static int scan(String expression, int position, ArrayList<Token> tokens)
+            throws Tokenizer.TokenizerException {
+
+        int length = expression.length();
+        int start = position;
+        TokenID id;
+        int value = 0;
+
+        switch (classOf(expression.charAt(position))) {
+            case DIGIT:
+                position = skip(expression, position + 1, DIGIT);
+                value = number(expression, start, position);
+                id = NUMBER;
+                break;
+            case DIE:
+                // A die is a d followed by digits, otherwise the d starts
+                // an ordinary name.
+                if (position + 1 < length
+                        && classOf(expression.charAt(position + 1)) == DIGIT) {
+                    position = skip(expression, position + 2, DIGIT);
+                    value = number(expression, start + 1, position);
+                    // A die without faces can't be rolled.
+                    if (value == 0) {
+                        throw new Tokenizer.TokenizerException(start);
+                    }
+                    id = DICE;
+                } else {
+                    position = skipLetters(expression, position + 1);
+                    id = CHARSEQUENCE;
+                }
+                break;
+            case LETTER:
+                position = skipLetters(expression, position + 1);
+                id = CHARSEQUENCE;
+                break;
+            case PUNCTUATION:
+                position++;
+                id = LITERAL;
+                break;
+            case ARITHMETIC:
+                position++;
+                value = expression.charAt(start) == '-' ? -1 : 1;
+                id = ARITHOP;
+                break;
+            case FACTOR:
+                position++;
+                value = expression.charAt(start) == '/' ? -1 : 1;
+                id = FACTOROP;
+                break;
+            default:
+                throw new Tokenizer.TokenizerException(position);
+        }
+
+        String literal = position - start == 1 ? Token.symbol(expression.charAt(start)) : null;
+        if (literal == null) {
+            literal = expression.substring(start, position);
+        }
+        tokens.add(new Token(id, literal, value, start, position));
+        return position;
+    }
+
+    // The value of the digits from start to end. Numbers too large for an
+    // int are rejected where they start.
+    private static int number(String expression, int start, int end)
+            throws Tokenizer.TokenizerException {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + expression.charAt(i) - '0';
+            if (value > Integer.MAX_VALUE) {
+                throw new Tokenizer.TokenizerException(start);
+            }
+        }
+        return (int) value;
+    }
+}
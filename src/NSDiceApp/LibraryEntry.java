@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A saved expression in an {@link ExpressionLibrary}.
+ *
+ * An entry is kept in its stored form, which holds the name, the source,
+ * its tokens and compiled program, the range, mean and standard deviation of
+ * each result, and the names of its variables, which the program numbers
+ * by their place in that list. The name and source are read straight away,
+ * the rest only when it is first asked for, so loading a large library
+ * costs little more than mapping the file. A damaged entry is only found
+ * then, so the program is checked before it is used and reading it fails
+ * with an IOException rather than anything the interpreter would run into.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class LibraryEntry {
+
+    /**
+     * Range, mean and standard deviation of one result.
+     */
+    public static class Summary {
+
+        private final int _min;
+        private final int _max;
+        private final double _mean;
+        private final double _standardDeviation;
+
+        public Summary(int min, int max, double mean, double standardDeviation) {
+            _min = min;
+            _max = max;
+            _mean = mean;
+            _standardDeviation = standardDeviation;
+        }
+
+        public int min() {
+            return _min;
+        }
+
+        public int max() {
+            return _max;
+        }
+
+        public double mean() {
+            return _mean;
+        }
+
+        public double standardDeviation() {
+            return _standardDeviation;
+        }
+
+        @Override
+        public String toString() {
+            return _min + ".." + _max + String.format(", mean %.2f", _mean);
+        }
+    }
+
+    private static final TokenID[] TOKEN_IDS = TokenID.values();
+
+    private ByteBuffer _data;
+    private final String _name;
+    private final String _source;
+    private final int _detailOffset;
+    private boolean _decoded;
+    private ArrayList<Token> _tokens;
+    private int[] _code;
+    private int _maxStack;
+    private int _resultCount;
+    private List<Summary> _summaries;
+    private String[] _variables;
+    private CompiledExpression _compiled;
+
+    // Wraps an entry in its stored form, see encode.
+    LibraryEntry(ByteBuffer data) {
+        _data = data;
+        ByteBuffer in = data.duplicate();
+        _name = readString(in);
+        _source = readString(in);
+        _detailOffset = in.position();
+    }
+
+    // The stored form of an entry: name, source, tokens, program, result
+    // summaries, or -1 summaries if the expression couldn't be analyzed, and
+    // variable names.
+    static ByteBuffer encode(String name, CompiledExpression compiled,
+            List<Distribution> distributions) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, name);
+            writeString(out, compiled.source());
+
+            out.writeInt(compiled.tokens().size());
+            for (Token t : compiled.tokens()) {
+                out.writeByte(t.Token().ordinal());
+                out.writeInt(t.Start());
+                out.writeInt(t.End());
+            }
+
+            Program program = compiled.program();
+            int[] code = program.code();
+            out.writeInt(program.maxStack());
+            out.writeInt(program.resultCount());
+            out.writeInt(code.length);
+            for (int instruction : code) {
+                out.writeInt(instruction);
+            }
+
+            if (distributions == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(distributions.size());
+                for (Distribution d : distributions) {
+                    out.writeInt(d.min());
+                    out.writeInt(d.max());
+                    out.writeDouble(d.mean());
+                    out.writeDouble(d.standardDeviation());
+                }
+            }
+
+            out.writeInt(program.variableCount());
+            for (int i = 0; i < program.variableCount(); i++) {
+                writeString(out, program.variable(i));
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    // The stored form of an entry saved before there were variables, which
+    // ends after the summaries, with an empty variable list added.
+    static ByteBuffer withoutVariables(ByteBuffer data) {
+        ByteBuffer upgraded = ByteBuffer.allocate(data.remaining() + 4);
+        upgraded.put(data.duplicate()).putInt(0).flip();
+        return upgraded;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readCount(in, 1)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Reads the number of items that follow, each taking at least size
+    // bytes, so a damaged count can't ask for more than there is.
+    private static int readCount(ByteBuffer in, int size) {
+        return checkCount(in, in.getInt(), size);
+    }
+
+    private static int checkCount(ByteBuffer in, int count, int size) {
+        if (count < 0 || count > in.remaining() / size) {
+            throw new IllegalArgumentException("Count " + count + " runs past the end");
+        }
+        return count;
+    }
+
+    // The stored form, positioned at its start.
+    synchronized ByteBuffer data() {
+        return _data.duplicate();
+    }
+
+    // Moves the stored form out of the mapped file onto the heap, so the
+    // file can be replaced.
+    synchronized void copyToHeap() {
+        if (_data.isDirect()) {
+            ByteBuffer copy = ByteBuffer.allocate(_data.remaining());
+            copy.put(_data.duplicate()).flip();
+            _data = copy;
+        }
+    }
+
+    public String name() {
+        return _name;
+    }
+
+    public String source() {
+        return _source;
+    }
+
+    // The stored tokens and program, ready to roll. There is no expression
+    // tree, the source is not parsed again.
+    public synchronized CompiledExpression compiled() throws IOException {
+        if (_compiled == null) {
+            decode();
+            _compiled = new CompiledExpression(_source, _tokens, null,
+                    new Program(_code, _maxStack, _resultCount, _variables));
+        }
+        return _compiled;
+    }
+
+    // Summary of each result, or null if the expression couldn't be
+    // analyzed when it was saved.
+    public synchronized List<Summary> summaries() throws IOException {
+        decode();
+        return _summaries;
+    }
+
+    private void decode() throws IOException {
+        if (_decoded) {
+            return;
+        }
+        ByteBuffer in = _data.duplicate();
+        in.position(_detailOffset);
+        try {
+            int tokenCount = readCount(in, 9);
+            ArrayList<Token> tokens = new ArrayList<>(tokenCount);
+            for (int i = 0; i < tokenCount; i++) {
+                TokenID id = TOKEN_IDS[in.get()];
+                int start = in.getInt();
+                int end = in.getInt();
+                tokens.add(new Token(id, _source.substring(start, end), start, end));
+            }
+
+            int maxStack = in.getInt();
+            int resultCount = in.getInt();
+            int[] code = new int[readCount(in, 4)];
+            in.asIntBuffer().get(code);
+            in.position(in.position() + code.length * 4);
+
+            List<Summary> summaries = null;
+            int summaryCount = in.getInt();
+            if (summaryCount >= 0) {
+                checkCount(in, summaryCount, 24);
+                summaries = new ArrayList<>(summaryCount);
+                for (int i = 0; i < summaryCount; i++) {
+                    summaries.add(new Summary(in.getInt(), in.getInt(), in.getDouble(), in.getDouble()));
+                }
+            }
+
+            String[] variables = new String[readCount(in, 4)];
+            for (int i = 0; i < variables.length; i++) {
+                variables[i] = readString(in);
+            }
+
+            Program.verify(code, maxStack, resultCount, variables.length);
+            _tokens = tokens;
+            _maxStack = maxStack;
+            _resultCount = resultCount;
+            _code = code;
+            _summaries = summaries;
+            _variables = variables;
+        } catch (RuntimeException ex) {
+            throw new IOException("Saved dice " + _name + " are damaged", ex);
+        }
+        _decoded = true;
+    }
+
+    @Override
+    public String toString() {
+        return _name;
+    }
+}
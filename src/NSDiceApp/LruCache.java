@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded cache that evicts the least recently used entries.
+ *
+ * Lookups go straight to a ConcurrentHashMap and only stamp the entry with
+ * the time of use, so hits never block each other. When an insert takes the
+ * cache over its capacity the oldest stamped entries are removed under a
+ * lock, which costs a scan of the entries but only happens on misses.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class LruCache<K, V> {
+
+    private static class Entry<V> {
+
+        private final V _value;
+        private volatile long _lastUse;
+
+        public Entry(V value) {
+            _value = value;
+            _lastUse = System.nanoTime();
+        }
+
+        public V touch() {
+            _lastUse = System.nanoTime();
+            return _value;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Entry<V>> _entries;
+    private final int _capacity;
+    private final Object _evictionLock = new Object();
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _evictions = new LongAdder();
+
+    public LruCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        _capacity = capacity;
+        _entries = new ConcurrentHashMap<>(Math.min(capacity, 1024) * 4 / 3 + 1);
+    }
+
+    // Returns the cached value for key, or null if there is none.
+    public V get(K key) {
+        Entry<V> entry = _entries.get(key);
+        if (entry == null) {
+            _misses.increment();
+            return null;
+        }
+        _hits.increment();
+        return entry.touch();
+    }
+
+    // Returns the cached value for key, computing and caching it with loader
+    // on a miss. Null values are returned but not cached.
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        value = loader.apply(key);
+        if (value == null) {
+            return null;
+        }
+        Entry<V> existing = _entries.putIfAbsent(key, new Entry<>(value));
+        if (existing != null) {
+            return existing.touch();
+        }
+        if (_entries.size() > _capacity) {
+            evict();
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        _entries.put(key, new Entry<>(value));
+        if (_entries.size() > _capacity) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        synchronized (_evictionLock) {
+            while (_entries.size() > _capacity) {
+                Map.Entry<K, Entry<V>> oldest = null;
+                for (Map.Entry<K, Entry<V>> e : _entries.entrySet()) {
+                    if (oldest == null || e.getValue()._lastUse - oldest.getValue()._lastUse < 0) {
+                        oldest = e;
+                    }
+                }
+                if (oldest == null) {
+                    return;
+                }
+                if (_entries.remove(oldest.getKey(), oldest.getValue())) {
+                    _evictions.increment();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        _entries.clear();
+    }
+
+    public int size() {
+        return _entries.size();
+    }
+
+    public int capacity() {
+        return _capacity;
+    }
+
+    public long hits() {
+        return _hits.sum();
+    }
+
+    public long misses() {
+        return _misses.sum();
+    }
+
+    public long evictions() {
+        return _evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d/%d entries, %d hits, %d misses, %d evictions]",
+                size(), _capacity, hits(), misses(), evictions());
+    }
+}
@@ -31,12 +31,228 @@ package NSDiceApp;
 public class MainWindow extends javax.swing.JFrame {
 
     private final DiceRollerLogic _logic;
+    // Variables assigned in one roll stay for the next, only used on the
+    // roll thread.
+    private final Environment _environment;
+    private final java.util.concurrent.ExecutorService _rollExecutor;
+    // The roll in progress and the last expression asked for while it ran,
+    // only touched on the event dispatch thread.
+    private RollTask _rollTask;
+    private String _pendingExpression;
+
+    private static final int PREVIEW_DELAY_MILLIS = 150;
+    private static final java.util.EnumMap<TokenID, javax.swing.text.Highlighter.HighlightPainter> TOKEN_PAINTERS
+            = new java.util.EnumMap<>(TokenID.class);
+    private static final javax.swing.text.Highlighter.HighlightPainter ERROR_PAINTER
+            = new javax.swing.text.DefaultHighlighter.DefaultHighlightPainter(new java.awt.Color(255, 190, 190));
+
+    static {
+        TOKEN_PAINTERS.put(TokenID.DICE, new javax.swing.text.DefaultHighlighter.DefaultHighlightPainter(new java.awt.Color(200, 220, 255)));
+        TOKEN_PAINTERS.put(TokenID.NUMBER, new javax.swing.text.DefaultHighlighter.DefaultHighlightPainter(new java.awt.Color(210, 240, 210)));
+        TOKEN_PAINTERS.put(TokenID.CHARSEQUENCE, new javax.swing.text.DefaultHighlighter.DefaultHighlightPainter(new java.awt.Color(235, 215, 245)));
+    }
+
+    // The preview parser is only used on the preview thread. The pending
+    // preview and the highlights are only touched on the event dispatch
+    // thread.
+    private final PreviewParser _previewParser;
+    private final java.util.concurrent.ScheduledExecutorService _previewExecutor;
+    private java.util.concurrent.ScheduledFuture<?> _previewTask;
+    private final java.util.ArrayList<Object> _previewHighlights;
+
+    // The library is loaded, added to and saved on the roll thread, and is
+    // null if it couldn't be loaded. The list model is its copy for the event
+    // dispatch thread.
+    private ExpressionLibrary _library;
+    private final javax.swing.DefaultListModel<LibraryEntry> _savedModel = new javax.swing.DefaultListModel<>();
+
     /**
      * Creates new form MainWindow
      */
     public MainWindow() {
         initComponents();
         _logic = new DiceRollerLogic();
+        _environment = _logic.newEnvironment();
+        // All parsing and rolling happens on this thread, which also keeps
+        // the logic to a single thread.
+        _rollExecutor = java.util.concurrent.Executors.newSingleThreadExecutor((r) -> {
+            Thread thread = new Thread(r, "dice-roller");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        _previewParser = new PreviewParser();
+        _previewExecutor = java.util.concurrent.Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread thread = new Thread(r, "dice-preview");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _previewHighlights = new java.util.ArrayList<>();
+        expressionInputField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                schedulePreview();
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                schedulePreview();
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+            }
+        });
+        schedulePreview();
+
+        _rollExecutor.execute(this::loadLibrary);
+    }
+
+    private void loadLibrary() {
+        try {
+            _library = ExpressionLibrary.load(ExpressionLibrary.defaultPath());
+        } catch (java.io.IOException ex) {
+            java.util.logging.Logger.getLogger(MainWindow.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
+            java.awt.EventQueue.invokeLater(() -> outputWindow.setText("Saved dice could not be loaded."));
+            return;
+        }
+        java.util.List<LibraryEntry> entries = new java.util.ArrayList<>(_library.entries());
+        java.awt.EventQueue.invokeLater(() -> entries.forEach(_savedModel::addElement));
+    }
+
+    private void saveExpression(String name, String source) {
+        String message = null;
+        LibraryEntry entry = null;
+        CompiledExpression compiled = _logic.compile(source);
+        if (_library == null) {
+            message = "Saved dice could not be loaded.";
+        } else if (compiled == null) {
+            message = "String can't be parsed.";
+        } else {
+            entry = _library.add(name, compiled);
+            try {
+                _library.save();
+            } catch (java.io.IOException ex) {
+                java.util.logging.Logger.getLogger(MainWindow.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
+                _library.remove(_library.size() - 1);
+                entry = null;
+                message = "Dice could not be saved.";
+            }
+        }
+        LibraryEntry saved = entry;
+        String error = message;
+        java.awt.EventQueue.invokeLater(() -> {
+            if (saved != null) {
+                _savedModel.addElement(saved);
+            } else {
+                outputWindow.setText(error);
+            }
+        });
+    }
+
+    // Previews the expression once typing has paused, giving up on any
+    // preview of an older text that is still being worked out.
+    private void schedulePreview() {
+        if (_previewTask != null) {
+            _previewTask.cancel(true);
+        }
+        String text = expressionInputField.getText();
+        _previewTask = _previewExecutor.schedule(() -> {
+            ExpressionPreview preview = _previewParser.update(text);
+            java.awt.EventQueue.invokeLater(() -> showPreview(preview));
+        }, PREVIEW_DELAY_MILLIS, java.util.concurrent.TimeUnit.MILLISECONDS);
+    }
+
+    private void showPreview(ExpressionPreview preview) {
+        if (!preview.source().equals(expressionInputField.getText())) {
+            return;
+        }
+        javax.swing.text.Highlighter highlighter = expressionInputField.getHighlighter();
+        _previewHighlights.forEach(highlighter::removeHighlight);
+        _previewHighlights.clear();
+        try {
+            for (Token token : preview.tokens()) {
+                javax.swing.text.Highlighter.HighlightPainter painter = TOKEN_PAINTERS.get(token.Token());
+                if (painter != null) {
+                    _previewHighlights.add(highlighter.addHighlight(token.Start(), token.End(), painter));
+                }
+            }
+            if (preview.errorPosition() >= 0) {
+                _previewHighlights.add(highlighter.addHighlight(
+                        preview.errorPosition(), preview.errorPosition() + 1, ERROR_PAINTER));
+            }
+        } catch (javax.swing.text.BadLocationException ex) {
+            java.util.logging.Logger.getLogger(MainWindow.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
+        }
+        previewLabel.setText(preview.summary());
+    }
+
+    /**
+     * Rolls an expression in the background and shows the result in the
+     * output window once it is done.
+     */
+    private class RollTask extends javax.swing.SwingWorker<String, Void> {
+
+        private final String _expression;
+        private final Interpreter _interpreter;
+
+        public RollTask(String expression) {
+            _expression = expression;
+            _interpreter = new Interpreter(DiceRandomSource.threadLocal(), _environment);
+            _interpreter.setProgressListener((fraction) -> setProgress(Math.min(100, (int) (fraction * 100))));
+            addPropertyChangeListener((evt) -> {
+                if ("progress".equals(evt.getPropertyName()) && _rollTask == this) {
+                    rollProgressBar.setIndeterminate(false);
+                    rollProgressBar.setValue((Integer) evt.getNewValue());
+                }
+            });
+        }
+
+        @Override
+        protected String doInBackground() {
+            return _logic.evaluate(_expression, _interpreter, false).toString();
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                outputWindow.setText("Roll cancelled.");
+            } else {
+                try {
+                    outputWindow.setText(get());
+                } catch (InterruptedException | java.util.concurrent.ExecutionException ex) {
+                    java.util.logging.Logger.getLogger(MainWindow.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
+                    outputWindow.setText("Roll failed.");
+                }
+            }
+            finishRoll();
+        }
+    }
+
+    // Starts rolling the expression. Asking again while a roll is running
+    // only remembers the expression, and the last one asked for is rolled
+    // once the running roll is done.
+    private void roll(String expression) {
+        if (_rollTask != null) {
+            _pendingExpression = expression;
+            return;
+        }
+        _rollTask = new RollTask(expression);
+        cancelButton.setEnabled(true);
+        rollProgressBar.setIndeterminate(true);
+        _rollExecutor.execute(_rollTask);
+    }
+
+    private void finishRoll() {
+        _rollTask = null;
+        cancelButton.setEnabled(false);
+        rollProgressBar.setIndeterminate(false);
+        rollProgressBar.setValue(0);
+        if (_pendingExpression != null) {
+            String expression = _pendingExpression;
+            _pendingExpression = null;
+            roll(expression);
+        }
     }
 
     /**
@@ -51,17 +267,22 @@ public class MainWindow extends javax.swing.JFrame {
         jScrollPane1 = new javax.swing.JScrollPane();
         SavedExpressionList = new javax.swing.JList<>();
         expressionInputField = new javax.swing.JTextField();
+        previewLabel = new javax.swing.JLabel();
         jScrollPane2 = new javax.swing.JScrollPane();
         outputWindow = new javax.swing.JTextArea();
         saveRollButton = new javax.swing.JButton();
         rollDiceButton = new javax.swing.JButton();
+        rollProgressBar = new javax.swing.JProgressBar();
+        cancelButton = new javax.swing.JButton();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
 
-        SavedExpressionList.setModel(new javax.swing.AbstractListModel<String>() {
-            String[] strings = { "Item 1", "Item 2", "Item 3", "Item 4", "Item 5" };
-            public int getSize() { return strings.length; }
-            public String getElementAt(int i) { return strings[i]; }
+        SavedExpressionList.setModel(_savedModel);
+        SavedExpressionList.setSelectionMode(javax.swing.ListSelectionModel.SINGLE_SELECTION);
+        SavedExpressionList.addMouseListener(new java.awt.event.MouseAdapter() {
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                SavedExpressionListMouseClicked(evt);
+            }
         });
         jScrollPane1.setViewportView(SavedExpressionList);
 
@@ -72,11 +293,18 @@ public class MainWindow extends javax.swing.JFrame {
             }
         });
 
+        previewLabel.setText(" ");
+
         outputWindow.setColumns(20);
         outputWindow.setRows(5);
         jScrollPane2.setViewportView(outputWindow);
 
         saveRollButton.setText("Save Dice");
+        saveRollButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                saveRollButtonActionPerformed(evt);
+            }
+        });
 
         rollDiceButton.setText("Roll!");
         rollDiceButton.addMouseListener(new java.awt.event.MouseAdapter() {
@@ -85,6 +313,14 @@ public class MainWindow extends javax.swing.JFrame {
             }
         });
 
+        cancelButton.setText("Cancel");
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                cancelButtonActionPerformed(evt);
+            }
+        });
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
         getContentPane().setLayout(layout);
         layout.setHorizontalGroup(
@@ -94,11 +330,15 @@ public class MainWindow extends javax.swing.JFrame {
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING, false)
                     .addComponent(jScrollPane2)
+                    .addComponent(rollProgressBar, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addGroup(layout.createSequentialGroup()
                         .addComponent(saveRollButton)
-                        .addGap(170, 170, 170)
+                        .addGap(87, 87, 87)
+                        .addComponent(cancelButton)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                         .addComponent(rollDiceButton))
-                    .addComponent(expressionInputField))
+                    .addComponent(expressionInputField)
+                    .addComponent(previewLabel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
         layout.setVerticalGroup(
@@ -106,11 +346,16 @@ public class MainWindow extends javax.swing.JFrame {
             .addGroup(layout.createSequentialGroup()
                 .addContainerGap()
                 .addComponent(expressionInputField, javax.swing.GroupLayout.PREFERRED_SIZE, 28, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(previewLabel)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addComponent(jScrollPane2, javax.swing.GroupLayout.PREFERRED_SIZE, 192, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(rollProgressBar, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(saveRollButton)
+                    .addComponent(cancelButton)
                     .addComponent(rollDiceButton))
                 .addGap(0, 14, Short.MAX_VALUE))
             .addComponent(jScrollPane1)
@@ -122,17 +367,75 @@ public class MainWindow extends javax.swing.JFrame {
     }// </editor-fold>//GEN-END:initComponents
 
     private void expressionInputFieldActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_expressionInputFieldActionPerformed
-        // TODO add your handling code here:
+        roll(expressionInputField.getText());
     }//GEN-LAST:event_expressionInputFieldActionPerformed
 
     private void rollDiceButtonMouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_rollDiceButtonMouseClicked
-        outputWindow.setText(_logic.evaluate(expressionInputField.getText()));
+        roll(expressionInputField.getText());
     }//GEN-LAST:event_rollDiceButtonMouseClicked
 
+    private void cancelButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cancelButtonActionPerformed
+        if (_rollTask != null) {
+            _pendingExpression = null;
+            _rollTask.cancel(true);
+        }
+    }//GEN-LAST:event_cancelButtonActionPerformed
+
+    private void saveRollButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_saveRollButtonActionPerformed
+        String source = expressionInputField.getText();
+        Object name = javax.swing.JOptionPane.showInputDialog(this, "Name:", "Save Dice",
+                javax.swing.JOptionPane.PLAIN_MESSAGE, null, null, source);
+        if (name == null || name.toString().trim().isEmpty()) {
+            return;
+        }
+        _rollExecutor.execute(() -> saveExpression(name.toString().trim(), source));
+    }//GEN-LAST:event_saveRollButtonActionPerformed
+
+    private void SavedExpressionListMouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_SavedExpressionListMouseClicked
+        LibraryEntry entry = SavedExpressionList.getSelectedValue();
+        if (entry == null) {
+            return;
+        }
+        expressionInputField.setText(entry.source());
+        if (evt.getClickCount() == 2) {
+            // Hand the stored program to the logic so rolling it doesn't
+            // parse the source again. If it is damaged the source is parsed
+            // as if it had been typed.
+            _rollExecutor.execute(() -> {
+                try {
+                    _logic.cache().put(DiceRollerLogic.normalize(entry.source()), entry.compiled());
+                } catch (java.io.IOException ex) {
+                    java.util.logging.Logger.getLogger(MainWindow.class.getName()).log(java.util.logging.Level.WARNING, null, ex);
+                }
+            });
+            roll(entry.source());
+        }
+    }//GEN-LAST:event_SavedExpressionListMouseClicked
+
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments, --batch rolls expressions
+     * without opening the window, see BatchRoller, --serve starts the
+     * HTTP service, see RollServer, and --replay checks a roll journal, see
+     * JournalReplay
      */
     public static void main(String args[]) {
+        if (args.length > 0 && args[0].equals("--replay")) {
+            JournalReplay.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchRoller.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            try {
+                RollServer.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            } catch (java.io.IOException ex) {
+                java.util.logging.Logger.getLogger(MainWindow.class.getName()).log(java.util.logging.Level.SEVERE, null, ex);
+            }
+            return;
+        }
+
         /* Set the Nimbus look and feel */
         //<editor-fold defaultstate="collapsed" desc=" Look and feel setting code (optional) ">
         /* If Nimbus (introduced in Java SE 6) is not available, stay with the default look and feel.
@@ -165,12 +468,15 @@ public class MainWindow extends javax.swing.JFrame {
     }
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
-    private javax.swing.JList<String> SavedExpressionList;
+    private javax.swing.JList<LibraryEntry> SavedExpressionList;
+    private javax.swing.JButton cancelButton;
     private javax.swing.JTextField expressionInputField;
     private javax.swing.JScrollPane jScrollPane1;
     private javax.swing.JScrollPane jScrollPane2;
     private javax.swing.JTextArea outputWindow;
+    private javax.swing.JLabel previewLabel;
     private javax.swing.JButton rollDiceButton;
+    private javax.swing.JProgressBar rollProgressBar;
     private javax.swing.JButton saveRollButton;
     // End of variables declaration//GEN-END:variables
 }
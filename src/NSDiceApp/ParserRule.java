@@ -25,6 +25,7 @@ package NSDiceApp;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 
 /**
@@ -33,9 +34,56 @@ import java.util.LinkedList;
  */
 public class ParserRule {
 
+    /**
+     * Results of earlier match attempts during a single parse, keyed by rule
+     * and by the index the attempt ended at. Rules match from the end of the
+     * token array towards the start, so the outcome of a rule at a given end
+     * index never changes during a parse and can be reused by every
+     * alternative that asks for it again. This keeps parse time linear in the
+     * number of tokens.
+     *
+     * The memo also counts how deeply the attempts are nested, which grows
+     * with every term of a sum or list and every pair of parentheses.
+     */
+    public static class Memo {
+
+        private static final Expression FAILED = Expression.dummy();
+
+        private final IdentityHashMap<ParserRule, Expression[]> _results;
+        private final int _size;
+        private int _depth;
+
+        public Memo(int size) {
+            _results = new IdentityHashMap<>();
+            _size = size;
+        }
+
+        // A memo for new tokens whose first keep tokens are the same as the
+        // ones previous was made for. Attempts ending at or before keep only
+        // looked at those tokens, so they are carried over.
+        public Memo(Memo previous, int keep, int size) {
+            this(size);
+            int last = Math.min(Math.min(keep, previous._size), size);
+            previous._results.forEach((rule, results) -> {
+                Expression[] copy = new Expression[size + 1];
+                System.arraycopy(results, 0, copy, 0, last + 1);
+                _results.put(rule, copy);
+            });
+        }
+
+        private Expression[] resultsFor(ParserRule rule) {
+            Expression[] results = _results.get(rule);
+            if (results == null) {
+                results = new Expression[_size + 1];
+                _results.put(rule, results);
+            }
+            return results;
+        }
+    }
+
     private abstract class Wrapper {
 
-        public abstract Expression call(ArrayList<Token> tokens);
+        public abstract Expression call(Token[] tokens, int end, Memo memo);
     }
 
     private class TerminalWrapper extends Wrapper {
@@ -49,8 +97,8 @@ public class ParserRule {
         }
 
         @Override
-        public Expression call(ArrayList<Token> tokens) {
-            return terminalFunction(tokens, _terminal, _expression);
+        public Expression call(Token[] tokens, int end, Memo memo) {
+            return terminalFunction(tokens, end, _terminal, _expression);
         }
     }
 
@@ -66,8 +114,8 @@ public class ParserRule {
 
 
         @Override
-        public Expression call(ArrayList<Token> tokens) {
-            return nonTerminalFunction(tokens, _rules, _expression);
+        public Expression call(Token[] tokens, int end, Memo memo) {
+            return nonTerminalFunction(tokens, end, _rules, _expression, memo);
         }
     }
 
@@ -80,11 +128,27 @@ public class ParserRule {
         }
 
         @Override
-        public Expression call(ArrayList<Token> tokens) {
-            return literalFunction(tokens, _literal);
+        public Expression call(Token[] tokens, int end, Memo memo) {
+            return literalFunction(tokens, end, _literal);
+        }
+    }
+
+    /**
+     * Thrown when matching nests deeper than {@link #MAX_DEPTH} attempts. The
+     * attempts it cuts short are not recorded in the memo.
+     */
+    static class DepthException extends RuntimeException {
+
+        public DepthException() {
+            super("Expression is nested too deeply");
         }
     }
 
+    // Deep enough for sums and lists of a thousand terms, and shallow enough
+    // that parsing, compiling and evaluating the tree fit in the default
+    // thread stack however the JIT has compiled the recursion.
+    public static final int MAX_DEPTH = 1024;
+
     private final LinkedList<Wrapper> _matches;
 
     public ParserRule() {
@@ -92,10 +156,11 @@ public class ParserRule {
     }
 
     public Expression terminalFunction(
-            ArrayList<Token> tokens,
+            Token[] tokens,
+            int end,
             TokenID terminal,
             Expression expression) {
-        if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).Token() == terminal) {
+        if (end > 0 && tokens[end - 1].Token() == terminal) {
 
             Expression expr;
             try {
@@ -103,7 +168,7 @@ public class ParserRule {
             } catch (CloneNotSupportedException ex) {
                 throw new RuntimeException("Internal parse error", ex);
             }
-            expr.addToken(tokens.get(tokens.size() - 1));
+            expr.setSpan(tokens, end - 1, end);
 
             return expr;
         } else {
@@ -112,26 +177,24 @@ public class ParserRule {
     }
 
     public Expression nonTerminalFunction(
-            ArrayList<Token> tokens,
+            Token[] tokens,
+            int end,
             ArrayList<ParserRule> rules,
-            Expression expression) {
+            Expression expression,
+            Memo memo) {
 
-        ArrayList<Expression> children = new ArrayList<>();
+        ArrayList<Expression> children = new ArrayList<>(rules.size());
+        int last = end;
 
         // Match all subrules
         for (ParserRule r : rules) {
-            Expression exp = r.match(tokens);
+            Expression exp = r.match(tokens, end, memo);
 
             if (exp == null) {
                 return null;
             } else {
                 // Consume the tokens on match.
-                if(exp.getTokens().isEmpty()) {
-                    System.out.println("HEY");
-                }
-                
-                tokens = new ArrayList<>(tokens.subList(0,
-                        tokens.size() - exp.getTokens().size()));
+                end -= exp.tokenCount();
 
                 children.add(exp);
             }
@@ -147,14 +210,15 @@ public class ParserRule {
             throw new RuntimeException("Internal parse error", ex);
         }
         exp.setChildren(children);
+        exp.setSpan(tokens, end, last);
         return exp;
     }
 
-    public Expression literalFunction(ArrayList<Token> tokens, String literal) {
+    public Expression literalFunction(Token[] tokens, int end, String literal) {
 
-        if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).Literal().equals(literal)) {
+        if (end > 0 && tokens[end - 1].Literal().equals(literal)) {
             Expression dummy = Expression.dummy();
-            dummy.addToken(tokens.get(tokens.size() - 1));
+            dummy.setSpan(tokens, end - 1, end);
             return dummy;
         } else {
             return null;
@@ -181,12 +245,38 @@ public class ParserRule {
     }
 
     public Expression match(ArrayList<Token> tokens) {
-        for (Wrapper w : _matches) {
-            Expression exp = w.call(tokens);
-            if (exp != null) {
-                return exp;
+        return match(tokens, new Memo(tokens.size()));
+    }
+
+    public Expression match(ArrayList<Token> tokens, Memo memo) {
+        return match(tokens.toArray(new Token[tokens.size()]), tokens.size(), memo);
+    }
+
+    // Matches the rule against the tokens before index end, reusing and
+    // recording attempts in memo.
+    public Expression match(Token[] tokens, int end, Memo memo) {
+        Expression[] results = memo.resultsFor(this);
+        Expression cached = results[end];
+        if (cached != null) {
+            return cached == Memo.FAILED ? null : cached;
+        }
+
+        if (memo._depth == MAX_DEPTH) {
+            throw new DepthException();
+        }
+        memo._depth++;
+        Expression match = null;
+        try {
+            for (Wrapper w : _matches) {
+                match = w.call(tokens, end, memo);
+                if (match != null) {
+                    break;
+                }
             }
+        } finally {
+            memo._depth--;
         }
-        return null;
+        results[end] = match == null ? Memo.FAILED : match;
+        return match;
     }
 }
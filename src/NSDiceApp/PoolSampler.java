@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.ArrayDeque;
+
+/**
+ * Draws the sum of a large dice pool in constant time.
+ *
+ * The exact distribution of the sum of count dice is computed once and
+ * turned into an alias table (Vose), after which each roll of the pool
+ * costs one bounded draw and one double whatever the number of dice. Tables
+ * are kept in a small LRU cache keyed by the number of dice and faces.
+ *
+ * Pools below THRESHOLD dice, or whose table would be too large to cache,
+ * are rolled with {@link BulkDice}.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class PoolSampler {
+
+    public static final int THRESHOLD = 4096;
+    public static final int CACHE_SIZE = 16;
+    private static final int MAX_TABLE = 1 << 18;
+
+    private static final LruCache<Long, PoolSampler> CACHE = new LruCache<>(CACHE_SIZE);
+
+    // The table used last, checked before the cache since the same pool is
+    // usually rolled over and over.
+    private static volatile PoolSampler _recent;
+
+    private final long _key;
+    private final int _min;
+    private final double[] _prob;
+    private final int[] _alias;
+
+    public PoolSampler(Distribution distribution) {
+        this(distribution, -1);
+    }
+
+    private PoolSampler(Distribution distribution, long key) {
+        _key = key;
+        int n = distribution.max() - distribution.min() + 1;
+        _min = distribution.min();
+        _prob = new double[n];
+        _alias = new int[n];
+
+        double total = 0.0;
+        for (int i = 0; i < n; i++) {
+            total += distribution.probability(_min + i);
+        }
+        double[] scaled = new double[n];
+        ArrayDeque<Integer> small = new ArrayDeque<>();
+        ArrayDeque<Integer> large = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            scaled[i] = distribution.probability(_min + i) * n / total;
+            if (scaled[i] < 1.0) {
+                small.push(i);
+            } else {
+                large.push(i);
+            }
+        }
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int s = small.pop();
+            int l = large.pop();
+            _prob[s] = scaled[s];
+            _alias[s] = l;
+            scaled[l] = scaled[l] + scaled[s] - 1.0;
+            if (scaled[l] < 1.0) {
+                small.push(l);
+            } else {
+                large.push(l);
+            }
+        }
+        // Whatever is left is one up to rounding.
+        while (!large.isEmpty()) {
+            _prob[large.pop()] = 1.0;
+        }
+        while (!small.isEmpty()) {
+            _prob[small.pop()] = 1.0;
+        }
+    }
+
+    public int sample(DiceRandomSource rnd) {
+        int i = rnd.nextInt(_prob.length);
+        return _min + (rnd.nextDouble() < _prob[i] ? i : _alias[i]);
+    }
+
+    // Sum of count dice with faces sides each.
+    public static int sum(DiceRandomSource rnd, int faces, int count) {
+        if (count < THRESHOLD || faces <= 1 || !fits(faces, count)) {
+            return (int) BulkDice.sum(rnd, faces, count);
+        }
+        long key = (long) faces << 32 | count;
+        PoolSampler sampler = _recent;
+        if (sampler == null || sampler._key != key) {
+            sampler = CACHE.get(key, (k) -> new PoolSampler(Distribution.uniform(faces).times(count), k));
+            _recent = sampler;
+        }
+        return sampler.sample(rnd);
+    }
+
+    // Only pools whose sum fits in an int and whose likely sums fit in a
+    // table get one. Sums more than ten standard deviations from the mean
+    // are below the precision of the distribution and are not stored.
+    static boolean fits(int faces, int count) {
+        if ((long) faces * count > Integer.MAX_VALUE) {
+            return false;
+        }
+        double sd = Math.sqrt(count * ((double) faces * faces - 1.0) / 12.0);
+        return 20.0 * sd < MAX_TABLE;
+    }
+
+    public static LruCache<Long, PoolSampler> cache() {
+        return CACHE;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.ArrayList;
+
+/**
+ * Parses an expression over and over as it is edited, redoing only what the
+ * edit can have changed.
+ *
+ * Tokens that end before the first changed character are kept, and so are
+ * the tokens after the edit once lexing the new text lines up with one of
+ * them again. The parser matches from the end of the tokens towards the
+ * start, so every match attempt that ended within the kept leading tokens
+ * is carried over in the memo, and with it the subtrees it built. Typing at
+ * the end of a long expression only parses the last few tokens.
+ *
+ * Working out the distributions of a wide expression can take long, so
+ * interrupting the thread stops update() with a CancellationException.
+ *
+ * A preview parser keeps the previous parse and must only be used by one
+ * thread at a time.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class PreviewParser {
+
+    private final DiceLanguageParser _parser;
+    // The last source that could be tokenized, its tokens and the memo of
+    // its parse.
+    private String _source;
+    private ArrayList<Token> _tokens;
+    private ParserRule.Memo _memo;
+
+    public PreviewParser() {
+        _parser = DiceLanguageParser.grammar();
+        _source = "";
+        _tokens = new ArrayList<>();
+    }
+
+    public ExpressionPreview update(String source) {
+        int prefix = 0;
+        int limit = Math.min(_source.length(), source.length());
+        while (prefix < limit && _source.charAt(prefix) == source.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix && _source.charAt(_source.length() - 1 - suffix)
+                == source.charAt(source.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int delta = source.length() - _source.length();
+        int editEnd = source.length() - suffix;
+
+        // A token that ends right at the edit might run on into it, so only
+        // the ones ending before it are kept.
+        int kept = 0;
+        while (kept < _tokens.size() && _tokens.get(kept).End() < prefix) {
+            kept++;
+        }
+        ArrayList<Token> tokens = new ArrayList<>(_tokens.subList(0, kept));
+        int old = kept;
+        try {
+            int position = Lexer.skipSpace(source, kept == 0 ? 0 : tokens.get(kept - 1).End());
+            while (position < source.length()) {
+                if (position >= editEnd) {
+                    while (old < _tokens.size() && _tokens.get(old).Start() + delta < position) {
+                        old++;
+                    }
+                    if (old < _tokens.size() && _tokens.get(old).Start() + delta == position) {
+                        // The rest of the text lexes as it did before.
+                        for (; old < _tokens.size(); old++) {
+                            tokens.add(_tokens.get(old).moveBy(delta));
+                        }
+                        break;
+                    }
+                }
+                position = Lexer.skipSpace(source, Lexer.scan(source, position, tokens));
+            }
+        } catch (Tokenizer.TokenizerException exception) {
+            // Keep the last good parse to work from next time.
+            return new ExpressionPreview(source, tokens, null, exception.Position(), null, kept);
+        }
+
+        ParserRule.Memo memo = _memo == null
+                ? new ParserRule.Memo(tokens.size())
+                : new ParserRule.Memo(_memo, kept, tokens.size());
+        Expression expression = _parser.parse(tokens, memo);
+        _source = source;
+        _tokens = tokens;
+        _memo = memo;
+
+        ArrayList<Distribution> distributions = null;
+        if (expression != null) {
+            try {
+                distributions = Distribution.analyze(ExpressionCompiler.compile(expression));
+            } catch (ArithmeticException | IllegalArgumentException exception) {
+                // Division by zero or too wide, roll it to find out.
+            }
+        }
+        return new ExpressionPreview(source, tokens, expression, -1, distributions, kept);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.Arrays;
+
+/**
+ * A parsed expression lowered to a flat list of stack machine instructions.
+ *
+ * Instructions are stored as opcodes followed by their operand, if any, in a
+ * single int array. Programs are immutable and are executed by an
+ * {@link Interpreter}.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class Program {
+
+    // Push the operand.
+    public static final int PUSH = 0;
+    // Push a roll of a die with operand faces.
+    public static final int ROLL = 1;
+    // Pop two values and push the result of the operation.
+    public static final int ADD = 2;
+    public static final int SUB = 3;
+    public static final int MUL = 4;
+    public static final int DIV = 5;
+    // Pop a count and run the following operand instructions that many
+    // times, pushing the sum of the values they leave on the stack.
+    public static final int REPEAT = 6;
+    // Pop a value and append it to the results.
+    public static final int CONCAT = 7;
+    // Pop a count and push the sum of that many rolls of a die with operand
+    // faces.
+    public static final int POOL = 8;
+    // Push the value of the variable in operand slot, a slot of the
+    // program's own, see variable(int).
+    public static final int LOAD = 9;
+    // Assign the value on top of the stack, leaving it there, to the
+    // variable in operand slot.
+    public static final int STORE = 10;
+
+    private static final String[] NO_VARIABLES = new String[0];
+
+    private final int[] _code;
+    private final int _maxStack;
+    private final int _resultCount;
+    private final String[] _variables;
+    // Where the variables were last found, see Environment.slots(Program).
+    private volatile Environment.Binding _binding;
+
+    public Program(int[] code, int maxStack, int resultCount) {
+        this(code, maxStack, resultCount, NO_VARIABLES);
+    }
+
+    // Variables holds the name of each slot the program uses.
+    public Program(int[] code, int maxStack, int resultCount, String[] variables) {
+        _code = code;
+        _maxStack = maxStack;
+        _resultCount = resultCount;
+        _variables = variables;
+    }
+
+    int[] code() {
+        return _code;
+    }
+
+    public int length() {
+        return _code.length;
+    }
+
+    // Deepest the operand stack gets while running the program.
+    public int maxStack() {
+        return _maxStack;
+    }
+
+    // Number of values a run of the program produces.
+    public int resultCount() {
+        return _resultCount;
+    }
+
+    // Number of variables the program uses. They have the slots from zero
+    // up, and it is up to the environment it runs in to give them values.
+    public int variableCount() {
+        return _variables.length;
+    }
+
+    public String variable(int slot) {
+        return _variables[slot];
+    }
+
+    Environment.Binding binding() {
+        return _binding;
+    }
+
+    void setBinding(Environment.Binding binding) {
+        _binding = binding;
+    }
+
+    // Checks that code can run as a program with the given stack size,
+    // results and variables, so that a program read back from storage can't
+    // fail inside the interpreter. Every opcode must be known, every
+    // operation must find its operands on the stack, dice need faces and
+    // variables a slot below variableCount. A repeated body has to lie
+    // within the code around it and leave exactly one value, and results
+    // can't be repeated. Compiled programs always pass.
+    static void verify(int[] code, int maxStack, int resultCount, int variableCount) {
+        // The end of each open repeated body and the depth it started at.
+        int[] ends = new int[16];
+        int[] starts = new int[16];
+        int open = 0;
+        int depth = 0;
+        int deepest = 0;
+        int concats = 0;
+        int pc = 0;
+        while (true) {
+            while (open > 0 && ends[open - 1] == pc) {
+                open--;
+                if (depth != starts[open] + 1) {
+                    throw new IllegalArgumentException("Repeated body at " + pc
+                            + " leaves " + (depth - starts[open]) + " values");
+                }
+            }
+            if (pc == code.length) {
+                break;
+            }
+            int opcode = code[pc];
+            if (opcode < PUSH || opcode > STORE) {
+                throw new IllegalArgumentException("Unknown opcode " + opcode + " at " + pc);
+            }
+            int next = pc + 1 + operandCount(opcode);
+            if (next > (open > 0 ? ends[open - 1] : code.length)) {
+                throw new IllegalArgumentException("Instruction at " + pc + " is cut short");
+            }
+            int operand = next > pc + 1 ? code[pc + 1] : 0;
+            int pops;
+            int pushes;
+            switch (opcode) {
+                case PUSH:
+                case ROLL:
+                case LOAD:
+                    pops = 0;
+                    pushes = 1;
+                    break;
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                    pops = 2;
+                    pushes = 1;
+                    break;
+                case CONCAT:
+                case REPEAT:
+                    pops = 1;
+                    pushes = 0;
+                    break;
+                default:
+                    // POOL and STORE replace or keep the top of the stack.
+                    pops = 1;
+                    pushes = 1;
+            }
+            if (depth < pops) {
+                throw new IllegalArgumentException("Stack underflow at " + pc);
+            }
+            if ((opcode == ROLL || opcode == POOL) && operand < 1) {
+                throw new IllegalArgumentException("Die without faces at " + pc);
+            }
+            if ((opcode == LOAD || opcode == STORE)
+                    && (operand < 0 || operand >= variableCount)) {
+                throw new IllegalArgumentException("Unknown variable slot " + operand
+                        + " at " + pc);
+            }
+            if (opcode == CONCAT) {
+                if (open > 0) {
+                    throw new IllegalArgumentException("Repeated result at " + pc);
+                }
+                concats++;
+            }
+            depth += pushes - pops;
+            deepest = Math.max(deepest, depth);
+            if (opcode == REPEAT) {
+                // The interpreter runs nested bodies recursively.
+                if (open == ParserRule.MAX_DEPTH) {
+                    throw new IllegalArgumentException("Repeats nested too deeply at " + pc);
+                }
+                if (operand < 0 || operand > (open > 0 ? ends[open - 1] : code.length) - next) {
+                    throw new IllegalArgumentException("Repeated body at " + pc
+                            + " runs past its end");
+                }
+                if (open == ends.length) {
+                    ends = Arrays.copyOf(ends, open * 2);
+                    starts = Arrays.copyOf(starts, open * 2);
+                }
+                ends[open] = next + operand;
+                starts[open] = depth;
+                open++;
+            }
+            pc = next;
+        }
+        if (depth != 0) {
+            throw new IllegalArgumentException("Program leaves " + depth + " values");
+        }
+        if (deepest > maxStack || maxStack > code.length) {
+            throw new IllegalArgumentException("Stack size " + maxStack + " doesn't fit");
+        }
+        if (concats != resultCount) {
+            throw new IllegalArgumentException("Program has " + concats + " results, not "
+                    + resultCount);
+        }
+    }
+
+    public static int operandCount(int opcode) {
+        switch (opcode) {
+            case PUSH:
+            case ROLL:
+            case REPEAT:
+            case POOL:
+            case LOAD:
+            case STORE:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,522 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only record of rolls, written in the background.
+ *
+ * Every entry holds the expression, the seed of the SplitMix64 stream it
+ * was rolled from, the values of the variables it read and its results, so
+ * that {@link JournalReplay} can roll it again and get the same results.
+ *
+ * Rolling threads only encode their entry and queue it. A single writer
+ * thread takes whatever has been queued, writes it with one gathering write
+ * and forces it to disk once for the whole batch, so the more threads roll
+ * the more entries share each commit. Rolls only wait for the writer once
+ * it falls some 65 thousand entries behind. Entries still queued are lost
+ * if the program dies, so callers that need a roll to be durable call
+ * flush().
+ *
+ * The file starts with a magic number and a version, followed by each
+ * entry's length, CRC-32 and payload. An entry cut short by a crash is
+ * dropped when the journal is opened again, and so is a header cut short
+ * before anything was written after it.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class RollJournal implements Closeable {
+
+    private static final int MAGIC = 0x4E53444A;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // Time, seed, flags and the lengths of the expression, the variables
+    // and the results, the smallest payload an entry can have.
+    private static final int MIN_ENTRY_SIZE = 8 + 8 + 1 + 4 + 4 + 4;
+    private static final int MAX_BATCH = 1024;
+    private static final int MAX_PENDING = 1 << 16;
+
+    private static final int HAS_DICE = 1;
+    private static final int FAILED = 2;
+
+    /**
+     * One roll as it was journaled.
+     */
+    public static class Entry {
+
+        private final long _time;
+        private final long _seed;
+        private final String _expression;
+        private final String[] _names;
+        private final int[] _variables;
+        private final int[] _values;
+        private final int[] _dice;
+        private final String _error;
+
+        // Values is null if the roll failed with error, dice is null unless
+        // the dice were recorded.
+        public Entry(long time, long seed, String expression, String[] names,
+                int[] variables, int[] values, int[] dice, String error) {
+            _time = time;
+            _seed = seed;
+            _expression = expression;
+            _names = names;
+            _variables = variables;
+            _values = values;
+            _dice = dice;
+            _error = error;
+        }
+
+        // Milliseconds since the epoch.
+        public long time() {
+            return _time;
+        }
+
+        public long seed() {
+            return _seed;
+        }
+
+        public String expression() {
+            return _expression;
+        }
+
+        // Names of the variables the roll read, with their values in
+        // variables().
+        public String[] names() {
+            return _names.clone();
+        }
+
+        public int[] variables() {
+            return _variables.clone();
+        }
+
+        public int[] values() {
+            return _values == null ? null : _values.clone();
+        }
+
+        public int[] dice() {
+            return _dice == null ? null : _dice.clone();
+        }
+
+        public String error() {
+            return _error;
+        }
+
+        private ByteBuffer encode() {
+            byte[] expression = utf8(_expression);
+            byte[][] names = new byte[_names.length][];
+            int size = 8 + 8 + 1 + 4 + expression.length + 4;
+            for (int i = 0; i < names.length; i++) {
+                names[i] = utf8(_names[i]);
+                size += 4 + names[i].length + 4;
+            }
+            byte[] error = _error == null ? null : utf8(_error);
+            size += error != null ? 4 + error.length : 4 + 4 * _values.length;
+            if (_dice != null) {
+                size += 4 + 4 * _dice.length;
+            }
+
+            ByteBuffer out = ByteBuffer.allocate(8 + size);
+            out.position(8);
+            out.putLong(_time);
+            out.putLong(_seed);
+            out.put((byte) ((_dice != null ? HAS_DICE : 0) | (error != null ? FAILED : 0)));
+            putBytes(out, expression);
+            out.putInt(names.length);
+            for (int i = 0; i < names.length; i++) {
+                putBytes(out, names[i]);
+                out.putInt(_variables[i]);
+            }
+            if (error != null) {
+                putBytes(out, error);
+            } else {
+                putInts(out, _values);
+            }
+            if (_dice != null) {
+                putInts(out, _dice);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(out.array(), 8, size);
+            out.putInt(0, size);
+            out.putInt(4, (int) crc.getValue());
+            out.flip();
+            return out;
+        }
+
+        private static Entry decode(ByteBuffer in) {
+            long time = in.getLong();
+            long seed = in.getLong();
+            int flags = in.get();
+            String expression = getString(in);
+            String[] names = new String[in.getInt()];
+            int[] variables = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = getString(in);
+                variables[i] = in.getInt();
+            }
+            String error = null;
+            int[] values = null;
+            if ((flags & FAILED) != 0) {
+                error = getString(in);
+            } else {
+                values = getInts(in);
+            }
+            int[] dice = (flags & HAS_DICE) != 0 ? getInts(in) : null;
+            return new Entry(time, seed, expression, names, variables, values, dice, error);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%tFT%<tT.%<tL %s seed=%d -> %s", _time, _expression, _seed,
+                    _error != null ? _error : Arrays.toString(_values));
+        }
+    }
+
+    private static volatile RollJournal _configured;
+    private static volatile boolean _configuredOpened;
+
+    private final Path _path;
+    private final FileChannel _channel;
+    private final ConcurrentLinkedQueue<ByteBuffer> _pending;
+    private final AtomicLong _appended;
+    private final AtomicLong _written;
+    private final Object _writtenLock = new Object();
+    private final Thread _writer;
+    private volatile boolean _waiting;
+    private volatile boolean _closed;
+    private volatile IOException _failure;
+
+    private RollJournal(Path path, FileChannel channel) {
+        _path = path;
+        _channel = channel;
+        _pending = new ConcurrentLinkedQueue<>();
+        _appended = new AtomicLong();
+        _written = new AtomicLong();
+        _writer = new Thread(this::write, "roll-journal");
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    // Opens the journal at path for appending, creating it if it doesn't
+    // exist. Reads through the entries already there to find where the
+    // last whole one ends.
+    public static RollJournal open(Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (!hasHeader(channel)) {
+                // Empty, or a crash cut the header short before any entry
+                // could follow it.
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+            } else {
+                long end = read(path, null);
+                if (end < channel.size()) {
+                    channel.truncate(end);
+                }
+            }
+            channel.position(channel.size());
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        return new RollJournal(path, channel);
+    }
+
+    // False if the file is shorter than a header or the header is all
+    // zeros, as a crash while it was written leaves it.
+    private static boolean hasHeader(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return false;
+            }
+        }
+        return header.getLong(0) != 0;
+    }
+
+    // The journal named by the nsdice.journal system property, opened the
+    // first time it is asked for and closed when the program exits, or null
+    // if the property isn't set.
+    public static RollJournal configured() {
+        if (_configuredOpened) {
+            return _configured;
+        }
+        synchronized (RollJournal.class) {
+            if (!_configuredOpened) {
+                String path = System.getProperty("nsdice.journal");
+                if (path != null) {
+                    try {
+                        RollJournal journal = open(Paths.get(path));
+                        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                            try {
+                                journal.close();
+                            } catch (IOException ex) {
+                                System.err.println("Journal not closed: " + ex.getMessage());
+                            }
+                        }));
+                        _configured = journal;
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException("Journal can't be opened", ex);
+                    }
+                }
+                _configuredOpened = true;
+            }
+            return _configured;
+        }
+    }
+
+    // Reads the entries of the journal at path in the order they were
+    // written, passing each to consumer unless it is null. Stops at the
+    // first entry that is cut short or damaged, and returns the offset it
+    // starts at. A length that can't be an entry's, such as the zeros a
+    // crash can leave past the end, counts as damage.
+    public static long read(Path path, Consumer<Entry> consumer) throws IOException {
+        long length = Files.size(path);
+        try (InputStream file = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a roll journal: " + path);
+            }
+            long offset = HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            byte[] payload = new byte[256];
+            while (true) {
+                int size;
+                int checksum;
+                try {
+                    size = in.readInt();
+                    checksum = in.readInt();
+                    if (size < MIN_ENTRY_SIZE || size > length - offset - 8) {
+                        break;
+                    }
+                    if (payload.length < size) {
+                        payload = new byte[Math.max(size, payload.length * 2)];
+                    }
+                    in.readFully(payload, 0, size);
+                } catch (EOFException ex) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, size);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                if (consumer != null) {
+                    consumer.accept(Entry.decode(ByteBuffer.wrap(payload, 0, size)));
+                }
+                offset += 8 + size;
+            }
+            return offset;
+        } catch (EOFException ex) {
+            throw new IOException("Not a roll journal: " + path, ex);
+        }
+    }
+
+    public Path path() {
+        return _path;
+    }
+
+    // Queues the entry to be written, waiting first if too many are queued.
+    public void append(Entry entry) {
+        ByteBuffer buffer = entry.encode();
+        if (_failure != null) {
+            throw new UncheckedIOException("Journal can't be written", _failure);
+        }
+        if (_closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        long appended = _appended.incrementAndGet();
+        if (appended - _written.get() > MAX_PENDING) {
+            awaitWritten(appended - MAX_PENDING);
+        }
+        _pending.offer(buffer);
+        if (_waiting) {
+            LockSupport.unpark(_writer);
+        }
+    }
+
+    // Waits until every entry appended so far is on disk.
+    public void flush() throws IOException {
+        awaitWritten(_appended.get());
+        if (_failure != null) {
+            throw _failure;
+        }
+    }
+
+    private void awaitWritten(long count) {
+        synchronized (_writtenLock) {
+            boolean interrupted = false;
+            while (_written.get() < count && _failure == null && _writer.isAlive()) {
+                try {
+                    _writtenLock.wait(100);
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Writes the remaining entries and closes the file.
+    @Override
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        LockSupport.unpark(_writer);
+        boolean interrupted = false;
+        while (_writer.isAlive()) {
+            try {
+                _writer.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        _channel.close();
+        if (_failure != null) {
+            throw _failure;
+        }
+    }
+
+    // The writer thread. Commits whatever is queued as one batch, and parks
+    // when there is nothing.
+    private void write() {
+        ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+        while (true) {
+            int count = 0;
+            ByteBuffer buffer;
+            while (count < MAX_BATCH && (buffer = _pending.poll()) != null) {
+                batch[count++] = buffer;
+            }
+            if (count == 0) {
+                if (_closed) {
+                    if (_pending.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                _waiting = true;
+                if (_pending.isEmpty() && !_closed) {
+                    LockSupport.park(this);
+                }
+                _waiting = false;
+                continue;
+            }
+            if (_failure == null) {
+                try {
+                    int first = 0;
+                    while (first < count) {
+                        _channel.write(batch, first, count - first);
+                        while (first < count && !batch[first].hasRemaining()) {
+                            first++;
+                        }
+                    }
+                    _channel.force(false);
+                } catch (IOException ex) {
+                    _failure = ex;
+                }
+            }
+            Arrays.fill(batch, 0, count, null);
+            _written.addAndGet(count);
+            synchronized (_writtenLock) {
+                _writtenLock.notifyAll();
+            }
+        }
+    }
+
+    // How a failed roll is described in the journal.
+    static String describe(RuntimeException exception) {
+        return exception instanceof ArithmeticException ? "Division by zero."
+                : exception.getMessage();
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putBytes(ByteBuffer out, byte[] bytes) {
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    private static void putInts(ByteBuffer out, int[] values) {
+        out.putInt(values.length);
+        for (int value : values) {
+            out.putInt(value);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int[] getInts(ByteBuffer in) {
+        int[] values = new int[in.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.getInt();
+        }
+        return values;
+    }
+}
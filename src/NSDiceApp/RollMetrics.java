@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and per stage latencies of rolls.
+ *
+ * The shared instance is registered with the platform MBean server as
+ * NSDiceApp:type=RollMetrics, with one NSDiceApp:type=RollMetrics,stage=...
+ * histogram per stage, so it can be read with jconsole or any JMX exporter.
+ * Recording is on unless the nsdice.metrics system property is false, and
+ * can be switched at runtime through the Enabled attribute.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class RollMetrics implements RollMetricsMBean {
+
+    public enum Stage {
+        TOKENIZE,
+        PARSE,
+        EVALUATE,
+        RENDER
+    }
+
+    private static final String DOMAIN = "NSDiceApp";
+    private static RollMetrics _shared;
+
+    private volatile boolean _enabled;
+    private final EnumMap<Stage, LatencyHistogram> _stages;
+    private final LongAdder _rolls = new LongAdder();
+    private final LongAdder _tokenizerFailures = new LongAdder();
+    private final LongAdder _parseFailures = new LongAdder();
+
+    public RollMetrics(boolean enabled) {
+        _enabled = enabled;
+        _stages = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            _stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    // The instance used by every DiceRollerLogic, registered on first use.
+    public static synchronized RollMetrics shared() {
+        if (_shared == null) {
+            _shared = new RollMetrics(!"false".equals(System.getProperty("nsdice.metrics")));
+            _shared.register(ManagementFactory.getPlatformMBeanServer());
+        }
+        return _shared;
+    }
+
+    public void register(MBeanServer server) {
+        try {
+            server.registerMBean(this, new ObjectName(DOMAIN + ":type=RollMetrics"));
+            for (Stage stage : Stage.values()) {
+                server.registerMBean(_stages.get(stage), new ObjectName(DOMAIN
+                        + ":type=RollMetrics,stage=" + stage.name().toLowerCase()));
+            }
+        } catch (JMException ex) {
+            Logger.getLogger(RollMetrics.class.getName()).log(Level.WARNING,
+                    "Roll metrics could not be registered", ex);
+        }
+    }
+
+    // Start time for a stage, or 0 when recording is off.
+    public long start() {
+        return _enabled ? System.nanoTime() : 0;
+    }
+
+    public void record(Stage stage, long start) {
+        if (start != 0) {
+            _stages.get(stage).record(System.nanoTime() - start);
+        }
+    }
+
+    public LatencyHistogram stage(Stage stage) {
+        return _stages.get(stage);
+    }
+
+    public void countRoll() {
+        if (_enabled) {
+            _rolls.increment();
+        }
+    }
+
+    public void countTokenizerFailure() {
+        if (_enabled) {
+            _tokenizerFailures.increment();
+        }
+    }
+
+    public void countParseFailure() {
+        if (_enabled) {
+            _parseFailures.increment();
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        _enabled = enabled;
+    }
+
+    @Override
+    public long getRolls() {
+        return _rolls.sum();
+    }
+
+    @Override
+    public long getTokenizerFailures() {
+        return _tokenizerFailures.sum();
+    }
+
+    @Override
+    public long getParseFailures() {
+        return _parseFailures.sum();
+    }
+
+    @Override
+    public void reset() {
+        _rolls.reset();
+        _tokenizerFailures.reset();
+        _parseFailures.reset();
+        for (LatencyHistogram histogram : _stages.values()) {
+            histogram.reset();
+        }
+    }
+}
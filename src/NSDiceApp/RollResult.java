@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of rolling an expression.
+ *
+ * Holds the values as ints together with the tokens they were rolled from,
+ * and the individual dice if they were asked for. Nothing is formatted until
+ * toString is called, and the text is kept once it has been built.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class RollResult {
+
+    private final CompiledExpression _compiled;
+    private final int[] _values;
+    private final IntVector _dice;
+    private final String _error;
+    private String _text;
+
+    private RollResult(CompiledExpression compiled, int[] values, IntVector dice, String error) {
+        _compiled = compiled;
+        _values = values;
+        _dice = dice;
+        _error = error;
+    }
+
+    public static RollResult of(CompiledExpression compiled, IntVector values, IntVector dice) {
+        return new RollResult(compiled, values.toArray(), dice, null);
+    }
+
+    public static RollResult failure(CompiledExpression compiled, String error) {
+        return new RollResult(compiled, new int[0], null, error);
+    }
+
+    public boolean isSuccess() {
+        return _error == null;
+    }
+
+    // Why the expression could not be rolled, or null.
+    public String error() {
+        return _error;
+    }
+
+    public int size() {
+        return _values.length;
+    }
+
+    public int value(int index) {
+        return _values[index];
+    }
+
+    public int[] values() {
+        return _values.clone();
+    }
+
+    // The tokens of the expression, empty if it could not be parsed.
+    public List<Token> tokens() {
+        return _compiled == null ? Collections.<Token>emptyList() : _compiled.tokens();
+    }
+
+    public CompiledExpression expression() {
+        return _compiled;
+    }
+
+    // Every die rolled, in the order they were rolled, or null unless the
+    // roll was asked to record them.
+    public IntVector dice() {
+        return _dice;
+    }
+
+    // The tokens as literal=TOKEN pairs on the first line and the values on
+    // the second, or the error.
+    @Override
+    public String toString() {
+        if (_text == null) {
+            _text = render();
+        }
+        return _text;
+    }
+
+    private String render() {
+        if (_error != null) {
+            return _error;
+        }
+        List<Token> tokens = tokens();
+        StringBuilder sb = new StringBuilder(tokens.size() * 12 + _values.length * 4 + 4);
+        sb.append('[');
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(tokens.get(i).Literal()).append('=').append(tokens.get(i).Token());
+        }
+        sb.append("]\n[");
+        for (int i = 0; i < _values.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(_values[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
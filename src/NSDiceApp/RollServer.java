@@ -0,0 +1,403 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP service for rolling and simulating expressions.
+ *
+ * POST /roll rolls every line of the request body and answers with one line
+ * per expression. POST /simulate takes trials and seed query parameters and
+ * simulates every line of the body. Both accept format=json for JSON lines
+ * instead of plain text. All requests share one DiceRollerLogic and with it
+ * one parse cache, and every request rolls through its own Interpreter.
+ * Requests run on virtual threads when the JVM has them.
+ *
+ * Simulations are refused unless trials is positive and at most the limit
+ * set by the nsdice.maxTrials system property, 10 million by default.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class RollServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final long DEFAULT_MAX_TRIALS = 10_000_000L;
+
+    private final DiceRollerLogic _logic;
+    private final long _maxTrials;
+    private final HttpServer _server;
+    private final ExecutorService _executor;
+
+    public RollServer(InetSocketAddress address, DiceRollerLogic logic) throws IOException {
+        _logic = logic;
+        _maxTrials = Long.getLong("nsdice.maxTrials", DEFAULT_MAX_TRIALS);
+        _executor = newExecutor();
+        _server = HttpServer.create(address, 0);
+        _server.setExecutor(_executor);
+        _server.createContext("/roll", this::handleRoll);
+        _server.createContext("/simulate", this::handleSimulate);
+    }
+
+    // One virtual thread per request on Java 21 and later, a cached pool of
+    // platform threads before that.
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        if (args.length > 0) {
+            try {
+                port = Integer.parseInt(args[0]);
+            } catch (NumberFormatException ex) {
+                System.err.println("Usage: --serve [port]");
+                System.exit(2);
+            }
+        }
+        RollServer server = new RollServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                new DiceRollerLogic());
+        server.start();
+        System.err.println("Listening on " + server.address());
+    }
+
+    public void start() {
+        _server.start();
+    }
+
+    public void stop() {
+        _server.stop(0);
+        _executor.shutdown();
+    }
+
+    public InetSocketAddress address() {
+        return _server.getAddress();
+    }
+
+    private void handleRoll(HttpExchange exchange) throws IOException {
+        try {
+            if (!accept(exchange)) {
+                return;
+            }
+            boolean json = "json".equals(query(exchange).get("format"));
+            // The lines of one request share their variables.
+            Interpreter interpreter = new Interpreter(DiceRandomSource.threadLocal(),
+                    _logic.newEnvironment());
+            try (BufferedReader body = body(exchange);
+                    ResponseWriter out = respond(exchange, json)) {
+                String line;
+                while ((line = body.readLine()) != null) {
+                    CompiledExpression compiled = _logic.compile(line);
+                    if (compiled == null) {
+                        out.error(json, line, "String can't be parsed.");
+                        continue;
+                    }
+                    IntVector values;
+                    try {
+                        values = _logic.roll(compiled, interpreter);
+                    } catch (ArithmeticException ex) {
+                        out.error(json, line, "Division by zero.");
+                        continue;
+                    } catch (IllegalArgumentException | Environment.UnboundException ex) {
+                        out.error(json, line, ex.getMessage());
+                        continue;
+                    }
+                    if (json) {
+                        out.write("{\"expression\":").string(line).write(",\"results\":[");
+                        for (int i = 0; i < values.size(); i++) {
+                            out.write(i > 0 ? "," : "").write(values.get(i));
+                        }
+                        out.write("]}\n");
+                    } else {
+                        for (int i = 0; i < values.size(); i++) {
+                            out.write(i > 0 ? " " : "").write(values.get(i));
+                        }
+                        out.write("\n");
+                    }
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleSimulate(HttpExchange exchange) throws IOException {
+        try {
+            if (!accept(exchange)) {
+                return;
+            }
+            HashMap<String, String> query = query(exchange);
+            boolean json = "json".equals(query.get("format"));
+            long trials;
+            long seed;
+            try {
+                trials = Long.parseLong(query.getOrDefault("trials", "100000"));
+                seed = query.containsKey("seed") ? Long.parseLong(query.get("seed"))
+                        : System.nanoTime();
+            } catch (NumberFormatException ex) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            // Every line runs all the trials, so a request can't ask for
+            // more than the limit per line.
+            if (trials <= 0 || trials > _maxTrials) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            try (BufferedReader body = body(exchange);
+                    ResponseWriter out = respond(exchange, json)) {
+                String line;
+                while ((line = body.readLine()) != null) {
+                    SimulationResult result;
+                    try {
+                        result = _logic.simulate(line, trials, seed);
+                    } catch (ArithmeticException ex) {
+                        out.error(json, line, "Division by zero.");
+                        continue;
+                    } catch (IllegalArgumentException | Environment.UnboundException ex) {
+                        out.error(json, line, ex.getMessage());
+                        continue;
+                    }
+                    if (result == null) {
+                        out.error(json, line, "String can't be parsed.");
+                    } else if (json) {
+                        out.write("{\"expression\":").string(line)
+                                .write(",\"trials\":").write(result.trials())
+                                .write(",\"min\":").write(result.min())
+                                .write(",\"max\":").write(result.max())
+                                .write(",\"mean\":").write(result.mean())
+                                .write(",\"sd\":").write(result.standardDeviation())
+                                .write(",\"median\":").write(result.median())
+                                .write(",\"binWidth\":").write(result.binWidth())
+                                .write(",\"histogram\":[");
+                        long[] histogram = result.histogram();
+                        for (int i = 0; i < histogram.length; i++) {
+                            out.write(i > 0 ? "," : "").write(histogram[i]);
+                        }
+                        out.write("]}\n");
+                    } else {
+                        out.write(result.trials()).write(" ").write(result.min())
+                                .write(" ").write(result.max())
+                                .write(" ").write(result.mean())
+                                .write(" ").write(result.standardDeviation()).write("\n");
+                    }
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static boolean accept(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            exchange.sendResponseHeaders(405, -1);
+            return false;
+        }
+        return true;
+    }
+
+    private static BufferedReader body(HttpExchange exchange) {
+        return new BufferedReader(new InputStreamReader(
+                exchange.getRequestBody(), StandardCharsets.UTF_8));
+    }
+
+    private static ResponseWriter respond(HttpExchange exchange, boolean json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type",
+                json ? "application/x-ndjson; charset=utf-8" : "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        return new ResponseWriter(exchange.getResponseBody());
+    }
+
+    private static HashMap<String, String> query(HttpExchange exchange) {
+        HashMap<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            try {
+                if (eq < 0) {
+                    params.put(URLDecoder.decode(pair, "UTF-8"), "");
+                } else {
+                    params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                }
+            } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+                // Skip malformed parameters.
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Writes numbers and text straight into a byte buffer in front of the
+     * response stream, so no strings are built for the values.
+     */
+    private static class ResponseWriter implements AutoCloseable {
+
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+        private final OutputStream _out;
+        private final byte[] _buffer = new byte[8192];
+        private int _length;
+
+        public ResponseWriter(OutputStream out) {
+            _out = out;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (_length + bytes > _buffer.length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            _out.write(_buffer, 0, _length);
+            _length = 0;
+        }
+
+        public ResponseWriter write(long value) throws IOException {
+            ensure(20);
+            if (value < 0) {
+                _buffer[_length++] = '-';
+            } else {
+                value = -value;
+            }
+            // Digits are produced from the negated value so Long.MIN_VALUE
+            // needs no special case.
+            int start = _length;
+            do {
+                _buffer[_length++] = (byte) ('0' - value % 10);
+                value /= 10;
+            } while (value != 0);
+            for (int i = start, j = _length - 1; i < j; i++, j--) {
+                byte t = _buffer[i];
+                _buffer[i] = _buffer[j];
+                _buffer[j] = t;
+            }
+            return this;
+        }
+
+        public ResponseWriter write(double value) throws IOException {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return write("null");
+            }
+            return write(Double.toString(value));
+        }
+
+        // Writes text as UTF-8.
+        public ResponseWriter write(String text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                i = writeChar(text, i);
+            }
+            return this;
+        }
+
+        // Writes text as a quoted JSON string.
+        public ResponseWriter string(String text) throws IOException {
+            ensure(1);
+            _buffer[_length++] = '"';
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                ensure(6);
+                if (c == '"' || c == '\\') {
+                    _buffer[_length++] = '\\';
+                    _buffer[_length++] = (byte) c;
+                } else if (c < 0x20) {
+                    _buffer[_length++] = '\\';
+                    _buffer[_length++] = 'u';
+                    _buffer[_length++] = '0';
+                    _buffer[_length++] = '0';
+                    _buffer[_length++] = HEX[c >> 4];
+                    _buffer[_length++] = HEX[c & 0xF];
+                } else {
+                    i = writeChar(text, i);
+                }
+            }
+            ensure(1);
+            _buffer[_length++] = '"';
+            return this;
+        }
+
+        // Encodes the character at index as UTF-8 and returns the index of
+        // its last char, which differs for surrogate pairs.
+        private int writeChar(String text, int index) throws IOException {
+            int c = text.codePointAt(index);
+            ensure(4);
+            if (c < 0x80) {
+                _buffer[_length++] = (byte) c;
+            } else if (c < 0x800) {
+                _buffer[_length++] = (byte) (0xC0 | (c >> 6));
+                _buffer[_length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c < 0x10000) {
+                _buffer[_length++] = (byte) (0xE0 | (c >> 12));
+                _buffer[_length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                _buffer[_length++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                _buffer[_length++] = (byte) (0xF0 | (c >> 18));
+                _buffer[_length++] = (byte) (0x80 | ((c >> 12) & 0x3F));
+                _buffer[_length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                _buffer[_length++] = (byte) (0x80 | (c & 0x3F));
+                return index + 1;
+            }
+            return index;
+        }
+
+        public void error(boolean json, String expression, String message) throws IOException {
+            if (json) {
+                write("{\"expression\":").string(expression)
+                        .write(",\"error\":").string(message).write("}\n");
+            } else {
+                write("error: ").write(message).write("\n");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            _out.close();
+        }
+    }
+}
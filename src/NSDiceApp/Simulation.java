@@ -0,0 +1,222 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Monte Carlo simulation of a compiled expression on a fork/join pool.
+ *
+ * The trials are split in halves until they are small enough to run on one
+ * worker, and every half gets its own random stream split off its parent's.
+ * The split tree only depends on the number of trials, so a given seed gives
+ * the same result however the work is scheduled.
+ *
+ * A run can report the number of trials done as it goes, and stops with a
+ * CancellationException if the thread waiting for it is interrupted. While
+ * a started simulation runs, {@link #snapshot()} gives the statistics of the
+ * parts finished so far. Finished parts are added to the snapshot by
+ * swapping in a merged copy, so neither the workers nor the readers take a
+ * lock. Blocking runs have no snapshot to keep up and skip the copying.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class Simulation {
+
+    private static final long LEAF_TRIALS = 1 << 14;
+    private static final int REPORT_TRIALS = 1 << 10;
+
+    // What all the tasks of one run share.
+    private static class Run {
+
+        private final LongConsumer _progress;
+        private final boolean _snapshots;
+        private final LongAdder _done = new LongAdder();
+        private final AtomicReference<SimulationResult> _finished
+                = new AtomicReference<>(new SimulationResult());
+        private volatile boolean _cancelled;
+
+        public Run(LongConsumer progress, boolean snapshots) {
+            _progress = progress;
+            _snapshots = snapshots;
+        }
+
+        public void report(long trials) {
+            if (_cancelled) {
+                throw new CancellationException("Simulation cancelled");
+            }
+            _done.add(trials);
+            if (_progress != null) {
+                _progress.accept(_done.sum());
+            }
+        }
+
+        // Adds the rolls of a finished part to the snapshot, if there is one.
+        // Published snapshots are never changed.
+        public void publish(SimulationResult part) {
+            if (!_snapshots) {
+                return;
+            }
+            SimulationResult current;
+            SimulationResult next;
+            do {
+                current = _finished.get();
+                next = current.copy().merge(part);
+            } while (!_finished.compareAndSet(current, next));
+        }
+    }
+
+    private static class Task extends RecursiveTask<SimulationResult> {
+
+        private final Program _program;
+        private final long _trials;
+        private final DiceRandomSource _rnd;
+        private final Run _run;
+
+        public Task(Program program, long trials, DiceRandomSource rnd, Run run) {
+            _program = program;
+            _trials = trials;
+            _rnd = rnd;
+            _run = run;
+        }
+
+        @Override
+        protected SimulationResult compute() {
+            if (_trials <= LEAF_TRIALS) {
+                return roll();
+            }
+            long half = _trials / 2;
+            Task left = new Task(_program, half, _rnd.split(), _run);
+            Task right = new Task(_program, _trials - half, _rnd, _run);
+            left.fork();
+            SimulationResult result = right.compute();
+            return left.join().merge(result);
+        }
+
+        private SimulationResult roll() {
+            Interpreter interpreter = new Interpreter(_rnd);
+            SimulationResult result = new SimulationResult();
+            for (long i = 0; i < _trials; i++) {
+                result.record(interpreter.run(_program).get(0));
+                if ((i + 1) % REPORT_TRIALS == 0) {
+                    _run.report(REPORT_TRIALS);
+                }
+            }
+            _run.report(_trials % REPORT_TRIALS);
+            _run.publish(result);
+            return result;
+        }
+    }
+
+    private final Run _run;
+    private final Task _task;
+    private final long _trials;
+
+    private Simulation(Run run, Task task, long trials) {
+        _run = run;
+        _task = task;
+        _trials = trials;
+    }
+
+    public static SimulationResult run(Program program, long trials, long seed) {
+        return run(program, trials, seed, ForkJoinPool.commonPool());
+    }
+
+    public static SimulationResult run(Program program, long trials, long seed,
+            ForkJoinPool pool) {
+        return run(program, trials, seed, pool, null);
+    }
+
+    // Runs the simulation, passing the number of trials done so far to
+    // progress, from the pool's threads, unless it is null.
+    public static SimulationResult run(Program program, long trials, long seed,
+            ForkJoinPool pool, LongConsumer progress) {
+        return start(program, trials, seed, pool, progress, false).join();
+    }
+
+    // Starts the simulation on the pool and returns at once.
+    public static Simulation start(Program program, long trials, long seed,
+            ForkJoinPool pool, LongConsumer progress) {
+        return start(program, trials, seed, pool, progress, true);
+    }
+
+    private static Simulation start(Program program, long trials, long seed,
+            ForkJoinPool pool, LongConsumer progress, boolean snapshots) {
+        if (program.resultCount() != 1) {
+            throw new IllegalArgumentException(
+                    "Only expressions with a single result can be simulated");
+        }
+        Run run = new Run(progress, snapshots);
+        Task task = new Task(program, trials, DiceRandomSource.splittable(seed), run);
+        pool.execute(task);
+        return new Simulation(run, task, trials);
+    }
+
+    public long trials() {
+        return _trials;
+    }
+
+    // Trials rolled so far, counted every thousand or so.
+    public long trialsDone() {
+        return _run._done.sum();
+    }
+
+    // Statistics of the parts of the simulation finished so far. The result
+    // is a copy that the caller may keep or change.
+    public SimulationResult snapshot() {
+        return _run._finished.get().copy();
+    }
+
+    public boolean isDone() {
+        return _task.isDone();
+    }
+
+    public void cancel() {
+        _run._cancelled = true;
+        _task.cancel(true);
+    }
+
+    // Waits for the simulation to finish and returns its result, which is
+    // the same for the same seed however the work was scheduled.
+    public SimulationResult join() {
+        try {
+            return _task.get();
+        } catch (InterruptedException exception) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Simulation cancelled");
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            }
+            throw new IllegalStateException(exception.getCause());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.Arrays;
+
+/**
+ * Streaming statistics of simulated rolls of an expression.
+ *
+ * Memory use doesn't depend on the number of rolls. The mean and variance
+ * are kept with Welford's method, relative to the first roll so that large
+ * values don't cost precision, and the rolls are counted in a fixed
+ * number of bins. Bins start one value wide and double in width whenever
+ * the rolls no longer fit, so the histogram and quantiles are exact until
+ * the range of the rolls grows past BINS values and approximate after that.
+ * Bin edges are multiples of the width, so results with different widths
+ * can always be merged.
+ *
+ * A result is not thread safe. Give every thread its own and merge them.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class SimulationResult {
+
+    public static final int BINS = 1 << 12;
+
+    private final long[] _counts;
+    // Start of the first bin and log2 of the bin width.
+    private long _lo;
+    private int _shift;
+    private long _trials;
+    private int _origin;
+    private double _mean;
+    private double _m2;
+    private int _min = Integer.MAX_VALUE;
+    private int _max = Integer.MIN_VALUE;
+
+    public SimulationResult() {
+        _counts = new long[BINS];
+    }
+
+    public SimulationResult copy() {
+        SimulationResult copy = new SimulationResult();
+        copy.merge(this);
+        return copy;
+    }
+
+    public void record(int value) {
+        long index = (value - _lo) >> _shift;
+        if (index < 0 || index >= BINS) {
+            rebin(Math.min(value, _min), Math.max(value, _max), 0, value < _min);
+            index = (value - _lo) >> _shift;
+        }
+        _counts[(int) index]++;
+        if (_trials == 0) {
+            _origin = value;
+        }
+        _trials++;
+        double x = (long) value - _origin;
+        double delta = x - _mean;
+        _mean += delta / _trials;
+        _m2 += delta * (x - _mean);
+        if (value < _min) {
+            _min = value;
+        }
+        if (value > _max) {
+            _max = value;
+        }
+    }
+
+    // Adds the rolls recorded by other to this result and returns it.
+    public SimulationResult merge(SimulationResult other) {
+        if (other._trials == 0) {
+            return this;
+        }
+        if (_trials == 0) {
+            _lo = other._lo;
+            _shift = other._shift;
+            System.arraycopy(other._counts, 0, _counts, 0, BINS);
+            _trials = other._trials;
+            _origin = other._origin;
+            _mean = other._mean;
+            _m2 = other._m2;
+            _min = other._min;
+            _max = other._max;
+            return this;
+        }
+        rebin(Math.min(_min, other._min), Math.max(_max, other._max), other._shift, false);
+        for (int i = 0; i < BINS; i++) {
+            if (other._counts[i] != 0) {
+                long start = other._lo + ((long) i << other._shift);
+                _counts[(int) ((start - _lo) >> _shift)] += other._counts[i];
+            }
+        }
+
+        // Chan's formula for combining the moments of two samples.
+        long trials = _trials + other._trials;
+        double delta = other._mean + ((long) other._origin - _origin) - _mean;
+        _mean += delta * other._trials / trials;
+        _m2 += other._m2 + delta * delta * ((double) _trials * other._trials / trials);
+        _trials = trials;
+        _min = Math.min(_min, other._min);
+        _max = Math.max(_max, other._max);
+        return this;
+    }
+
+    // Moves the bins to cover every value from lo to hi, widening them to at
+    // least 1 << minShift and further if needed. When the range grew
+    // downwards the bins are placed as low as they go, otherwise as high,
+    // to leave room for the values to come.
+    private void rebin(long lo, long hi, int minShift, boolean downwards) {
+        int shift = Math.max(_shift, minShift);
+        while ((hi >> shift) - (lo >> shift) >= BINS) {
+            shift++;
+        }
+        long newLo = downwards ? ((hi >> shift) - BINS + 1) << shift : (lo >> shift) << shift;
+        if (_trials == 0) {
+            // Nothing to move, center the bins on the first roll.
+            _lo = (lo >> shift << shift) - ((long) BINS / 2 << shift);
+            _shift = shift;
+            return;
+        }
+        if (newLo == _lo && shift == _shift) {
+            return;
+        }
+        long[] counts = new long[BINS];
+        for (int i = 0; i < BINS; i++) {
+            if (_counts[i] != 0) {
+                long start = _lo + ((long) i << _shift);
+                counts[(int) ((start - newLo) >> shift)] += _counts[i];
+            }
+        }
+        System.arraycopy(counts, 0, _counts, 0, BINS);
+        _lo = newLo;
+        _shift = shift;
+    }
+
+    public long trials() {
+        return _trials;
+    }
+
+    // Number of rolls in the bin holding value, which is the number of rolls
+    // of exactly that value as long as binWidth() is 1.
+    public long count(int value) {
+        long index = (value - _lo) >> _shift;
+        return _trials == 0 || index < 0 || index >= BINS ? 0 : _counts[(int) index];
+    }
+
+    public double frequency(int value) {
+        return _trials == 0 ? 0.0 : (double) count(value) / _trials;
+    }
+
+    public int min() {
+        return _min;
+    }
+
+    public int max() {
+        return _max;
+    }
+
+    public double mean() {
+        return _trials == 0 ? Double.NaN : _origin + _mean;
+    }
+
+    public double variance() {
+        return _trials == 0 ? Double.NaN : _m2 / _trials;
+    }
+
+    public double standardDeviation() {
+        return Math.sqrt(variance());
+    }
+
+    public int binWidth() {
+        return 1 << _shift;
+    }
+
+    // The smallest value v such that at least a fraction p of the rolls are
+    // v or less. Exact while binWidth() is 1, otherwise interpolated within
+    // the bin.
+    public double quantile(double p) {
+        if (p < 0.0 || p > 1.0) {
+            throw new IllegalArgumentException("p must be between 0 and 1");
+        }
+        if (_trials == 0) {
+            return Double.NaN;
+        }
+        double rank = Math.max(Math.ceil(p * _trials), 1.0);
+        long below = 0;
+        int i = (int) ((_min - _lo) >> _shift);
+        while (below + _counts[i] < rank) {
+            below += _counts[i];
+            i++;
+        }
+        long start = _lo + ((long) i << _shift);
+        if (_shift == 0) {
+            return start;
+        }
+        double value = start + (rank - below) / _counts[i] * binWidth() - 1.0;
+        return Math.min(Math.max(value, _min), _max);
+    }
+
+    public double median() {
+        return quantile(0.5);
+    }
+
+    // Counts of the bins from the one holding min() to the one holding
+    // max(), which are the counts of every value from min() to max() as
+    // long as binWidth() is 1.
+    public long[] histogram() {
+        if (_trials == 0) {
+            return new long[0];
+        }
+        return Arrays.copyOfRange(_counts, (int) ((_min - _lo) >> _shift),
+                (int) ((_max - _lo) >> _shift) + 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d rolls, %d..%d, mean %.4f, sd %.4f, median %.1f]",
+                _trials, _min, _max, mean(), standardDeviation(), median());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.ArrayList;
+
+/**
+ * A constant plus any number of added or subtracted terms.
+ *
+ * The optimizer turns chains of + and - into a single sum, so that long
+ * expressions are evaluated in a loop rather than by recursing down the
+ * chain, and so that all the constants in the chain are added up once.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class SumExpression extends Expression {
+
+    private final ArrayList<Expression> _terms;
+    private final IntVector _signs;
+    private int _constant;
+
+    // The sum stands for the tokens of the expression it replaces.
+    public SumExpression(Expression replaced) {
+        _terms = new ArrayList<>();
+        _signs = new IntVector();
+        setSpan(replaced);
+    }
+
+    // Adds the term, or subtracts it if sign is negative. Constants and
+    // other sums are merged into this one.
+    public void add(int sign, Expression term) {
+        if (term.isConstant()) {
+            _constant += sign * term.evaluateScalar();
+        } else if (term instanceof SumExpression) {
+            SumExpression sum = (SumExpression) term;
+            _constant += sign * sum._constant;
+            for (int i = 0; i < sum._terms.size(); i++) {
+                _terms.add(sum._terms.get(i));
+                _signs.add(sign * sum._signs.get(i));
+            }
+        } else {
+            _terms.add(term);
+            _signs.add(sign);
+        }
+    }
+
+    // Returns a constant if nothing is left to roll, or the only term if
+    // there is nothing to add to it.
+    public Expression simplify() {
+        if (_terms.isEmpty()) {
+            return Expression.constant(_constant, this);
+        }
+        if (_terms.size() == 1 && _constant == 0 && _signs.get(0) > 0) {
+            return _terms.get(0);
+        }
+        return this;
+    }
+
+    @Override
+    public Expression optimize() {
+        return this;
+    }
+
+    @Override
+    public int evaluateScalar(Environment environment) {
+        int sum = _constant;
+        for (int i = 0; i < _terms.size(); i++) {
+            int value = _terms.get(i).evaluateScalar(environment);
+            sum += _signs.get(i) > 0 ? value : -value;
+        }
+        return sum;
+    }
+
+    @Override
+    public void compile(ExpressionCompiler compiler) {
+        int first = 0;
+        if (_constant != 0 || _signs.get(0) < 0) {
+            compiler.push(_constant);
+        } else {
+            _terms.get(0).compile(compiler);
+            first = 1;
+        }
+        for (int i = first; i < _terms.size(); i++) {
+            _terms.get(i).compile(compiler);
+            compiler.emit(_signs.get(i) > 0 ? Program.ADD : Program.SUB);
+        }
+    }
+}
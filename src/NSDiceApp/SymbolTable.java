@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Numbers variable names, from zero up in the order they are first seen.
+ *
+ * Each compiled program numbers its own variables, and each
+ * {@link Environment} numbers the names its session has used, so a table
+ * only ever holds the names of one expression or one session. Like those,
+ * a table must not be used by more than one thread at a time.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class SymbolTable {
+
+    private final HashMap<String, Integer> _slots;
+    private final ArrayList<String> _names;
+
+    public SymbolTable() {
+        _slots = new HashMap<>();
+        _names = new ArrayList<>();
+    }
+
+    // The slot of name, giving it the next free one if it has none yet.
+    public int slot(String name) {
+        Integer slot = _slots.get(name);
+        if (slot == null) {
+            slot = _names.size();
+            _slots.put(name, slot);
+            _names.add(name);
+        }
+        return slot;
+    }
+
+    public String name(int slot) {
+        return _names.get(slot);
+    }
+
+    public int size() {
+        return _names.size();
+    }
+
+    // The names, indexed by slot.
+    public String[] names() {
+        return _names.toArray(new String[_names.size()]);
+    }
+}
@@ -26,26 +26,95 @@ package NSDiceApp;
 import java.util.Objects;
 
 /**
+ * A token, with its value decoded once when it is made.
+ *
+ * The value of a number is the number, of a die its number of faces, of + and
+ * * it is 1 and of - and / it is -1, so evaluating never has to look at the
+ * literal. Operators and punctuation share one literal string each.
  *
  * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
  */
 public class Token {
 
+    private static final String[] SYMBOLS = new String[128];
+
+    static {
+        for (char c : "+-*/,=().".toCharArray()) {
+            SYMBOLS[c] = String.valueOf(c).intern();
+        }
+    }
+
     private final TokenID _token;
     private final String _literal;
+    private final int _value;
+    private final int _start;
+    private final int _end;
 
     public Token(TokenID token, String literal) {
+        this(token, literal, -1, -1);
+    }
+
+    // Decodes the value from the literal. Throws NumberFormatException if a
+    // number or die is too large.
+    public Token(TokenID token, String literal, int start, int end) {
+        this(token, literal, decode(token, literal), start, end);
+    }
+
+    public Token(TokenID token, String literal, int value, int start, int end) {
         _token = token;
         _literal = literal;
+        _value = value;
+        _start = start;
+        _end = end;
+    }
+
+    // The shared literal of an operator or punctuation character, or null.
+    static String symbol(char c) {
+        return c < SYMBOLS.length ? SYMBOLS[c] : null;
+    }
+
+    static int decode(TokenID token, String literal) {
+        switch (token) {
+            case NUMBER:
+                return Integer.parseInt(literal);
+            case DICE:
+                return Integer.parseInt(literal.substring(1));
+            case ARITHOP:
+                return literal.equals("-") ? -1 : 1;
+            case FACTOROP:
+                return literal.equals("/") ? -1 : 1;
+            default:
+                return 0;
+        }
+    }
+
+    // The same token, moved delta characters along the string.
+    public Token moveBy(int delta) {
+        return new Token(_token, _literal, _value, _start + delta, _end + delta);
     }
 
     public String Literal() {
         return _literal;
     }
 
+    public int Value() {
+        return _value;
+    }
+
     public TokenID Token() {
         return _token;
     }
+
+    // Offset of the first character of the token in the tokenized string,
+    // or -1 if the token was created by hand.
+    public int Start() {
+        return _start;
+    }
+
+    // Offset one past the last character of the token.
+    public int End() {
+        return _end;
+    }
     
     @Override
     public boolean equals(Object t) {
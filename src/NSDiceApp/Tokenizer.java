@@ -34,8 +34,24 @@ import java.util.regex.Matcher;
  */
 public class Tokenizer {
 
-    public class TokenizerException extends Exception {
-    };
+    public static class TokenizerException extends Exception {
+
+        private final int _position;
+
+        public TokenizerException() {
+            this(-1);
+        }
+
+        public TokenizerException(int position) {
+            super(position < 0 ? null : "Unexpected character at " + position);
+            _position = position;
+        }
+
+        // Offset of the first character no rule could match, or -1.
+        public int Position() {
+            return _position;
+        }
+    }
 
     private class Rule {
 
@@ -67,23 +83,35 @@ public class Tokenizer {
             throws TokenizerException {
 
         ArrayList<Token> tokens = new ArrayList<>();
-
-        while (!expression.isEmpty()) {
-            String copy = expression;
+        int length = expression.length();
+        int position = 0;
+
+        // Match the rules against a moving region instead of cutting the
+        // matched prefix off the string, so each step is proportional to the
+        // length of the token rather than to the rest of the expression.
+        while (position < length) {
+            boolean matched = false;
             for (Rule rule : _rules) {
                 Matcher matcher = rule.Pattern().matcher(expression);
+                matcher.region(position, length);
 
-                if (matcher.find()) {
+                if (matcher.lookingAt() && matcher.end() > position) {
                     if (rule.Token() != TokenID.WHITESPACE) {
-                        tokens.add(new Token(rule.Token(), matcher.group().trim()));
+                        try {
+                            tokens.add(new Token(rule.Token(), matcher.group().trim(),
+                                    position, matcher.end()));
+                        } catch (NumberFormatException ex) {
+                            throw new TokenizerException(position);
+                        }
                     }
-                    expression = matcher.replaceFirst("");
+                    position = matcher.end();
+                    matched = true;
                     break;
                 }
             }
 
-            if (expression.equals(copy)) {
-                throw new TokenizerException();
+            if (!matched) {
+                throw new TokenizerException(position);
             }
         }
 
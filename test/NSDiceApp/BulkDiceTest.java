@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Dice taken many at a time from each random word.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class BulkDiceTest {
+
+    // A source counting the words drawn from it, the first of which is
+    // first and the rest from a seeded source.
+    private static class CountingSource implements DiceRandomSource {
+
+        private final DiceRandomSource _rest = DiceRandomSource.seeded(3);
+        private final long _first;
+        private int _drawn;
+
+        CountingSource(long first) {
+            _first = first;
+        }
+
+        @Override
+        public long nextLong() {
+            return _drawn++ == 0 ? _first : _rest.nextLong();
+        }
+
+        @Override
+        public DiceRandomSource split() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Test
+    public void everyFaceIsEquallyLikely() {
+        for (int faces : new int[] {2, 3, 6, 7, 8, 10, 20, 100}) {
+            long[] counts = new long[faces];
+            int[] out = new int[faces * 20000];
+            new BulkDice(DiceRandomSource.xoshiro(faces), faces)
+                    .roll(out, 0, out.length);
+            for (int die : out) {
+                assertTrue(faces + ": " + die, die >= 1 && die <= faces);
+                counts[die - 1]++;
+            }
+            double chi = DiceRandomSourceTest.chiSquare(counts, out.length);
+            assertTrue("d" + faces + ": " + chi, chi < chiSquareBound(faces - 1));
+        }
+    }
+
+    @Test
+    public void largeDiceStayInRange() {
+        for (int faces : new int[] {
+                65537, 1 << 30, (1 << 30) + 1, Integer.MAX_VALUE}) {
+            int[] out = new int[10000];
+            new BulkDice(DiceRandomSource.seeded(faces), faces)
+                    .roll(out, 0, out.length);
+            long sum = 0;
+            for (int die : out) {
+                assertTrue(faces + ": " + die, die >= 1 && die <= faces);
+                sum += die;
+            }
+            double mean = (double) sum / out.length;
+            assertEquals((faces + 1L) / 2.0, mean, faces * 0.02);
+        }
+    }
+
+    @Test
+    public void sumMatchesTheRolledDice() {
+        for (int faces : new int[] {1, 2, 6, 7, 20, 1000}) {
+            int[] out = new int[12345];
+            new BulkDice(DiceRandomSource.seeded(9), faces).roll(out, 0, out.length);
+            long sum = 0;
+            for (int die : out) {
+                sum += die;
+            }
+            assertEquals("d" + faces, sum,
+                    new BulkDice(DiceRandomSource.seeded(9), faces).sum(out.length));
+        }
+    }
+
+    @Test
+    public void rejectedWordsAreNotUsed() {
+        // Word zero times any power of the faces is zero, which is below the
+        // threshold of every face count that isn't a power of two.
+        for (int faces : new int[] {3, 6, 7, 20}) {
+            CountingSource rnd = new CountingSource(0L);
+            new BulkDice(rnd, faces).roll(new int[1], 0, 1);
+            assertEquals("d" + faces, 2, rnd._drawn);
+        }
+        // Powers of two take bit fields and never reject.
+        CountingSource rnd = new CountingSource(0L);
+        int[] out = new int[1];
+        new BulkDice(rnd, 8).roll(out, 0, 1);
+        assertEquals(1, rnd._drawn);
+        assertEquals(1, out[0]);
+    }
+
+    @Test
+    public void fillsOnlyTheGivenRange() {
+        int[] out = new int[10];
+        new BulkDice(DiceRandomSource.seeded(1), 6).roll(out, 3, 4);
+        assertArrayEquals(new int[] {0, 0, 0}, java.util.Arrays.copyOfRange(out, 0, 3));
+        assertArrayEquals(new int[] {0, 0, 0}, java.util.Arrays.copyOfRange(out, 7, 10));
+        for (int i = 3; i < 7; i++) {
+            assertTrue(out[i] >= 1 && out[i] <= 6);
+        }
+    }
+
+    @Test
+    public void emptyAndOneFacedPools() {
+        assertEquals(0, BulkDice.sum(DiceRandomSource.seeded(1), 6, 0));
+        assertEquals(0, BulkDice.sum(DiceRandomSource.seeded(1), 6, -5));
+        assertEquals(1000000, BulkDice.sum(DiceRandomSource.seeded(1), 1, 1000000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void facelessDiceAreRefused() {
+        new BulkDice(DiceRandomSource.seeded(1), 0);
+    }
+
+    // Chi-square statistic of counts against a uniform distribution,
+    // divided by its degrees of freedom. Uniform counts stay close to 1.
+    // Five standard deviations above the mean of a chi-square distribution
+    // with df degrees of freedom; a fair die rarely gets near it.
+    private static double chiSquareBound(int df) {
+        return df + 5 * Math.sqrt(2.0 * df);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parsing and evaluating expression trees.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class DiceLanguageParserTest {
+
+    private static Expression parse(String source) throws Tokenizer.TokenizerException {
+        return DiceLanguageParser.grammar().parse(new Lexer().tokenize(source));
+    }
+
+    private static String repeat(String term, String separator, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            sb.append(term);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void evaluatesLists() throws Exception {
+        IntVector values = parse("1 + 2 * 3, 10 / 3, -4, 3d1").evaluate();
+        assertArrayEquals(new int[] {7, 3, -4, 3}, values.toArray());
+        assertNull(parse("1 +"));
+    }
+
+    @Test
+    public void variablesLiveInTheEnvironment() throws Exception {
+        Expression tree = parse("b = 2, a = b * 3, a + b");
+        Environment first = new Environment();
+        Environment second = new Environment();
+        second.set(second.slot("other"), 9);
+        assertArrayEquals(new int[] {2, 6, 8}, tree.evaluate(first).toArray());
+        assertArrayEquals(new int[] {2, 6, 8}, tree.evaluate(second).toArray());
+        assertEquals(6, second.get(second.slot("a")));
+        assertEquals(9, second.get(second.slot("other")));
+
+        // A cleared environment forgets the slots the tree kept.
+        first.clear();
+        first.set(first.slot("c"), 1);
+        assertArrayEquals(new int[] {2, 6, 8}, tree.evaluate(first).toArray());
+        assertEquals(1, first.get(first.slot("c")));
+    }
+
+    @Test(expected = Environment.UnboundException.class)
+    public void unassignedVariablesFail() throws Exception {
+        parse("x + 1").evaluate();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void listsHaveNoSingleValue() throws Exception {
+        parse("1, 2").evaluateScalar();
+    }
+
+    @Test
+    public void longSumsParse() throws Exception {
+        Expression sum = parse(repeat("d2", " + ", 1000));
+        assertNotNull(sum);
+        int value = sum.optimize().evaluateScalar();
+        assertTrue(value >= 1000 && value <= 2000);
+        assertNotNull(parse(repeat("1", ", ", 1000)));
+    }
+
+    @Test
+    public void deepExpressionsDontParse() throws Exception {
+        // These used to overflow the stack.
+        assertNull(parse(repeat("d2", " + ", 5000)));
+        assertNull(parse(repeat("1", ", ", 100000)));
+        assertNull(parse(repeat("(", "", 2000) + "1" + repeat(")", "", 2000)));
+    }
+
+    @Test
+    public void previewRefusesDeepExpressionsBuiltUpByEditing() {
+        // Each edit only parses the new term, the rest of the tree comes
+        // from the memo of the previous parse.
+        PreviewParser preview = new PreviewParser();
+        StringBuilder source = new StringBuilder(repeat("d2", " + ", 900));
+        assertTrue(preview.update(source.toString()).isValid());
+        ExpressionPreview last = null;
+        for (int terms = 901; terms <= 1200; terms++) {
+            source.append(" + d2");
+            last = preview.update(source.toString());
+            if (terms <= 1000) {
+                assertTrue(terms + " terms", last.isValid());
+            } else if (terms > 1100) {
+                assertFalse(terms + " terms", last.isValid());
+            }
+        }
+        assertTrue(last.reusedTokens() > 0);
+    }
+}
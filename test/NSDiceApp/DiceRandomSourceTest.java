@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bounded draws of the random sources.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class DiceRandomSourceTest {
+
+    // A source that returns the given words and then fails.
+    static DiceRandomSource words(long... words) {
+        return new DiceRandomSource() {
+            private int _next;
+
+            @Override
+            public long nextLong() {
+                return words[_next++];
+            }
+
+            @Override
+            public DiceRandomSource split() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void nextIntRejectsTheLowRemainder() {
+        // 2^32 mod 3 is 1, so only a product whose low half is 0 is
+        // rejected, and the draw moves on to the next word.
+        DiceRandomSource rnd = words(0L, 0xFFFFFFFFL << 32);
+        assertEquals(2, rnd.nextInt(3));
+    }
+
+    @Test
+    public void nextIntKeepsAcceptedWords() {
+        DiceRandomSource rnd = words(1L << 32, 0L);
+        assertEquals(0, rnd.nextInt(3));
+    }
+
+    @Test
+    public void nextIntStaysWithinBound() {
+        int[] bounds = {1, 2, 3, 6, 7, 100, (1 << 30) + 1, Integer.MAX_VALUE - 1,
+            Integer.MAX_VALUE};
+        DiceRandomSource rnd = DiceRandomSource.seeded(1);
+        for (int bound : bounds) {
+            for (int i = 0; i < 10000; i++) {
+                int value = rnd.nextInt(bound);
+                assertTrue(bound + ": " + value, value >= 0 && value < bound);
+            }
+        }
+        DiceRandomSource high = words(-1L, -1L, -1L);
+        assertEquals(Integer.MAX_VALUE - 1, high.nextInt(Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nextIntRefusesEmptyBound() {
+        DiceRandomSource.seeded(1).nextInt(0);
+    }
+
+    @Test
+    public void rollIsUniform() {
+        DiceRandomSource rnd = DiceRandomSource.xoshiro(7);
+        long[] counts = new long[7];
+        int rolls = 700000;
+        for (int i = 0; i < rolls; i++) {
+            counts[rnd.roll(7) - 1]++;
+        }
+        assertTrue(chiSquare(counts, rolls) < 22.5);
+    }
+
+    // Chi-square statistic of counts against a uniform distribution. With
+    // 6 degrees of freedom 22.5 is exceeded one time in a thousand.
+    static double chiSquare(long[] counts, long total) {
+        double expected = (double) total / counts.length;
+        double sum = 0.0;
+        for (long count : counts) {
+            sum += (count - expected) * (count - expected) / expected;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exact distributions of dice and of the operations on them.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class DistributionTest {
+
+    private static final double EPSILON = 1e-12;
+
+    private static Distribution die(int faces) {
+        return Distribution.uniform(faces);
+    }
+
+    @Test
+    public void sumsOfDice() {
+        Distribution twoD6 = die(6).times(2);
+        assertEquals(2, twoD6.min());
+        assertEquals(12, twoD6.max());
+        assertEquals(6.0 / 36, twoD6.probability(7), EPSILON);
+        assertEquals(7.0, twoD6.mean(), EPSILON);
+        assertEquals(35.0 / 6, twoD6.variance(), 1e-9);
+    }
+
+    @Test
+    public void productBoundsComeFromTheCorners() {
+        Distribution product = die(6).negate().multiply(die(4).negate());
+        assertEquals(1, product.min());
+        assertEquals(24, product.max());
+        assertEquals(1.0 / 24, product.probability(24), EPSILON);
+
+        Distribution mixed = die(6).subtract(Distribution.constant(3)).multiply(die(4));
+        assertEquals(-8, mixed.min());
+        assertEquals(12, mixed.max());
+    }
+
+    @Test
+    public void quotientBoundsAroundZero() {
+        Distribution divisor = die(5).subtract(Distribution.constant(3));
+        try {
+            die(10).divide(divisor);
+            fail("Division by zero was allowed");
+        } catch (ArithmeticException ex) {
+            // -2..2 includes zero.
+        }
+        Distribution quotient = die(10).divide(die(3).subtract(Distribution.constant(4)));
+        assertEquals(-10, quotient.min());
+        assertEquals(0, quotient.max());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wideProductsAreRefused() {
+        die(100000).multiply(die(100000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void productsOutsideIntAreRefused() {
+        Distribution.constant(Integer.MAX_VALUE).multiply(Distribution.constant(2));
+    }
+
+    @Test
+    public void analyzedProgramsMatchTheirResults() {
+        DiceRollerLogic logic = new DiceRollerLogic();
+        List<Distribution> results = Distribution.analyze(
+                logic.compile("3d6 + 2, (d4)d6, d20 / 2").program());
+        assertEquals(3, results.size());
+        assertEquals(5, results.get(0).min());
+        assertEquals(20, results.get(0).max());
+        assertEquals(1, results.get(1).min());
+        assertEquals(24, results.get(1).max());
+        assertEquals(2.5 * 3.5, results.get(1).mean(), 1e-9);
+        assertEquals(0, results.get(2).min());
+        assertEquals(10, results.get(2).max());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void programsWithVariablesAreRefused() {
+        Distribution.analyze(new DiceRollerLogic().compile("x = d6, x + 1").program());
+    }
+}
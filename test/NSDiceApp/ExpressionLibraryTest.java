@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Saving, loading and upgrading the library of saved dice.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class ExpressionLibraryTest {
+
+    private static final int MAGIC = 0x4E53444C;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final DiceRollerLogic _logic = new DiceRollerLogic(DiceRandomSource.seeded(1));
+
+    private Path path() {
+        return folder.getRoot().toPath().resolve("library.bin");
+    }
+
+    private IntVector roll(LibraryEntry entry) throws IOException {
+        return _logic.roll(entry.compiled(), new Interpreter(DiceRandomSource.seeded(4),
+                _logic.newEnvironment()));
+    }
+
+    // The stored form of an entry as version 1 wrote it, which ended with
+    // the summaries.
+    private ByteBuffer version1(String name, String source) {
+        CompiledExpression compiled = _logic.compile(source);
+        ByteBuffer data = LibraryEntry.encode(name, compiled,
+                Distribution.analyze(compiled.program()));
+        data.limit(data.limit() - 4);
+        return data;
+    }
+
+    private void write(int version, ByteBuffer... entries) throws IOException {
+        int size = 12;
+        for (ByteBuffer entry : entries) {
+            size += 4 + entry.remaining();
+        }
+        ByteBuffer file = ByteBuffer.allocate(size);
+        file.putInt(MAGIC).putInt(version).putInt(entries.length);
+        for (ByteBuffer entry : entries) {
+            file.putInt(entry.remaining()).put(entry.duplicate());
+        }
+        Files.write(path(), file.array());
+    }
+
+    @Test
+    public void missingFileIsEmpty() throws IOException {
+        assertEquals(0, ExpressionLibrary.load(path()).size());
+    }
+
+    @Test
+    public void savedEntriesLoadAgain() throws IOException {
+        ExpressionLibrary library = ExpressionLibrary.load(path());
+        library.add("attack", _logic.compile("d20 + 5"));
+        library.add("stats", _logic.compile("str = 3d6, dex = 3d6, str + dex"));
+        library.save();
+
+        ExpressionLibrary loaded = ExpressionLibrary.load(path());
+        assertEquals(2, loaded.size());
+        LibraryEntry attack = loaded.entries().get(0);
+        assertEquals("attack", attack.name());
+        assertEquals("d20 + 5", attack.source());
+        assertEquals(6, attack.summaries().get(0).min());
+        assertEquals(25, attack.summaries().get(0).max());
+
+        LibraryEntry stats = loaded.entries().get(1);
+        assertEquals(2, stats.compiled().program().variableCount());
+        IntVector values = roll(stats);
+        assertEquals(values.get(0) + values.get(1), values.get(2));
+        assertNull(stats.summaries());
+    }
+
+    @Test
+    public void version1EntriesHaveNoVariables() throws IOException {
+        write(1, version1("fireball", "8d6"), version1("sword", "d8 + 3, d20"));
+
+        ExpressionLibrary library = ExpressionLibrary.load(path());
+        assertEquals(2, library.size());
+        LibraryEntry sword = library.entries().get(1);
+        assertEquals("sword", sword.name());
+        assertEquals(0, sword.compiled().program().variableCount());
+        assertEquals(2, sword.summaries().size());
+        assertEquals(2, roll(sword).size());
+
+        // Saving writes version 2, which loads with the same entries.
+        library.add("new", _logic.compile("x = d4, x"));
+        library.save();
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(path()));
+        assertEquals(MAGIC, header.getInt());
+        assertEquals(2, header.getInt());
+        ExpressionLibrary saved = ExpressionLibrary.load(path());
+        assertEquals(Arrays.asList("fireball", "sword", "new"), names(saved.entries()));
+        int fireball = roll(saved.entries().get(0)).get(0);
+        assertTrue(fireball >= 8 && fireball <= 48);
+        assertEquals(1, saved.entries().get(2).compiled().program().variableCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownVersionIsRefused() throws IOException {
+        write(3, version1("fireball", "8d6"));
+        ExpressionLibrary.load(path());
+    }
+
+    @Test
+    public void damagedProgramIsReported() throws IOException {
+        CompiledExpression compiled = _logic.compile("d6 + d8");
+        ByteBuffer data = LibraryEntry.encode("broken", compiled, null);
+        // Turn the first instruction into an opcode that doesn't exist. It
+        // follows the name, source, tokens, stack size, result count and
+        // code length.
+        int offset = 4 + "broken".length() + 4 + "d6 + d8".length()
+                + 4 + compiled.tokens().size() * 9 + 12;
+        assertEquals(Program.ROLL, data.getInt(offset));
+        data.putInt(offset, 99);
+        write(2, data);
+
+        LibraryEntry entry = ExpressionLibrary.load(path()).entries().get(0);
+        assertEquals("broken", entry.name());
+        try {
+            entry.compiled();
+            fail("Damaged program was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("damaged"));
+        }
+    }
+
+    @Test
+    public void cutShortEntryIsReported() throws IOException {
+        ByteBuffer data = LibraryEntry.encode("short", _logic.compile("3d6"), null);
+        data.limit(data.limit() - 12);
+        write(2, data);
+
+        LibraryEntry entry = ExpressionLibrary.load(path()).entries().get(0);
+        try {
+            entry.summaries();
+            fail("Cut short entry was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("damaged"));
+        }
+    }
+
+    private static List<String> names(List<LibraryEntry> entries) {
+        String[] names = new String[entries.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = entries.get(i).name();
+        }
+        return Arrays.asList(names);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writing, recovering and replaying roll journals.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class RollJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static RollJournal.Entry entry(String expression, int... values) {
+        return new RollJournal.Entry(1000L, 42L, expression, new String[0], new int[0],
+                values, null, null);
+    }
+
+    private static ArrayList<RollJournal.Entry> entries(Path path) throws IOException {
+        ArrayList<RollJournal.Entry> entries = new ArrayList<>();
+        RollJournal.read(path, entries::add);
+        return entries;
+    }
+
+    private Path journal(String... expressions) throws IOException {
+        Path path = folder.getRoot().toPath().resolve("rolls.journal");
+        try (RollJournal journal = RollJournal.open(path)) {
+            for (int i = 0; i < expressions.length; i++) {
+                journal.append(entry(expressions[i], i));
+            }
+        }
+        return path;
+    }
+
+    @Test
+    public void entriesAreReadBackInOrder() throws IOException {
+        Path path = journal("d6", "2d8, x", "d20 + 3");
+        ArrayList<RollJournal.Entry> entries = entries(path);
+        assertEquals(3, entries.size());
+        assertEquals("2d8, x", entries.get(1).expression());
+        assertArrayEquals(new int[] {2}, entries.get(2).values());
+        assertEquals(42L, entries.get(0).seed());
+        assertEquals(Files.size(path), RollJournal.read(path, null));
+    }
+
+    @Test
+    public void flushWritesQueuedEntries() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("flushed.journal");
+        try (RollJournal journal = RollJournal.open(path)) {
+            for (int i = 0; i < 1000; i++) {
+                journal.append(entry("d6", i));
+            }
+            journal.flush();
+            assertEquals(1000, entries(path).size());
+        }
+    }
+
+    @Test
+    public void tornEntryIsDroppedOnOpen() throws IOException {
+        Path path = journal("d6", "d8", "d10");
+        long whole = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(whole - 5);
+        }
+        assertEquals(2, entries(path).size());
+
+        try (RollJournal journal = RollJournal.open(path)) {
+            journal.append(entry("d12", 7));
+        }
+        ArrayList<RollJournal.Entry> entries = entries(path);
+        assertEquals(3, entries.size());
+        assertEquals("d12", entries.get(2).expression());
+    }
+
+    @Test
+    public void zerosPastTheEndAreDroppedOnOpen() throws IOException {
+        Path path = journal("d6", "d8");
+        long whole = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(100), whole);
+        }
+        assertEquals(whole, RollJournal.read(path, null));
+
+        try (RollJournal journal = RollJournal.open(path)) {
+            journal.append(entry("d4", 1));
+        }
+        assertEquals(3, entries(path).size());
+    }
+
+    @Test
+    public void damagedEntryEndsTheJournal() throws IOException {
+        Path path = journal("d6", "d8", "d10");
+        long end = RollJournal.read(path, null);
+        byte[] bytes = Files.readAllBytes(path);
+        // Flip a byte in the payload of the last entry.
+        bytes[bytes.length - 2] ^= 1;
+        Files.write(path, bytes);
+        assertEquals(2, entries(path).size());
+        assertTrue(RollJournal.read(path, null) < end);
+    }
+
+    @Test
+    public void tornHeaderStartsOver() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("header.journal");
+        for (byte[] contents : new byte[][] {{}, {0x4E, 0x53, 0x44}, new byte[8],
+            new byte[100]}) {
+            Files.write(path, contents);
+            try (RollJournal journal = RollJournal.open(path)) {
+                journal.append(entry("d6", 3));
+            }
+            assertEquals(contents.length + " bytes", 1, entries(path).size());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRefused() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("other.txt");
+        Files.write(path, "not a journal at all".getBytes("UTF-8"));
+        RollJournal.read(path, null);
+    }
+
+    @Test
+    public void journaledRollsReplay() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("replay.journal");
+        DiceRollerLogic logic = new DiceRollerLogic(DiceRandomSource.seeded(1));
+        Interpreter interpreter = new Interpreter(DiceRandomSource.seeded(2),
+                logic.newEnvironment());
+        try (RollJournal journal = RollJournal.open(path)) {
+            logic.setJournal(journal);
+            logic.evaluate("x = d20, x + d6", interpreter, false);
+            logic.evaluate("x * d4, 10d6", interpreter, true);
+            logic.evaluate("1000d6 + x", interpreter, true);
+            logic.evaluate("d6 / 0", interpreter, false);
+            logic.evaluate("y + 1", interpreter, false);
+        } finally {
+            logic.setJournal(null);
+        }
+
+        ArrayList<RollJournal.Entry> entries = entries(path);
+        assertEquals(5, entries.size());
+        assertArrayEquals(new String[] {"x"}, entries.get(1).names());
+        assertEquals(11, entries.get(1).dice().length);
+        assertNotNull(entries.get(3).error());
+        assertNull(entries.get(3).values());
+
+        JournalReplay replay = new JournalReplay();
+        for (RollJournal.Entry e : entries) {
+            assertNull(e.toString(), replay.check(e));
+        }
+
+        // An entry whose results were changed no longer replays.
+        RollJournal.Entry first = entries.get(0);
+        int[] values = first.values();
+        values[1]++;
+        RollJournal.Entry changed = new RollJournal.Entry(first.time(), first.seed(),
+                first.expression(), first.names(), first.variables(), values, null, null);
+        assertNotNull(replay.check(changed));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Björn Kihlström <bjorn_kihlstrom@outlook.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package NSDiceApp;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streaming statistics, and how their bins widen and merge.
+ *
+ * @author Björn Kihlström <bjorn_kihlstrom@outlook.com>
+ */
+public class SimulationResultTest {
+
+    @Test
+    public void narrowRangesAreExact() {
+        SimulationResult result = new SimulationResult();
+        for (int value = 1; value <= 6; value++) {
+            for (int i = 0; i < value; i++) {
+                result.record(value);
+            }
+        }
+        assertEquals(21, result.trials());
+        assertEquals(1, result.binWidth());
+        assertArrayEquals(new long[] {1, 2, 3, 4, 5, 6}, result.histogram());
+        assertEquals(91.0 / 21, result.mean(), 1e-12);
+        assertEquals(5.0, result.median(), 0.0);
+        assertEquals(1, result.min());
+        assertEquals(6, result.max());
+    }
+
+    @Test
+    public void binsWidenToCoverTheRange() {
+        SimulationResult result = new SimulationResult();
+        for (int value = 0; value < 10000; value++) {
+            result.record(value);
+        }
+        assertEquals(4, result.binWidth());
+        assertEquals(10000, total(result.histogram()));
+        assertEquals(4999.5, result.mean(), 1e-9);
+        assertEquals(4999.5, result.median(), result.binWidth());
+        assertEquals(0, result.min());
+        assertEquals(9999, result.max());
+    }
+
+    @Test
+    public void binsMoveDownwards() {
+        SimulationResult result = new SimulationResult();
+        result.record(1000);
+        for (int value = 999; value >= -20000; value--) {
+            result.record(value);
+        }
+        assertEquals(21001, result.trials());
+        assertEquals(21001, total(result.histogram()));
+        assertEquals(-20000, result.min());
+        assertEquals(1000, result.max());
+        assertEquals(1, result.count(1000));
+    }
+
+    @Test
+    public void extremeValuesDontOverflow() {
+        SimulationResult result = new SimulationResult();
+        result.record(Integer.MAX_VALUE);
+        result.record(Integer.MIN_VALUE);
+        result.record(0);
+        assertEquals(3, total(result.histogram()));
+        assertEquals(-1.0 / 3, result.mean(), 1e-6);
+        assertEquals(Integer.MIN_VALUE, result.min());
+        assertEquals(Integer.MAX_VALUE, result.max());
+    }
+
+    @Test
+    public void mergingMatchesRecordingEverything() {
+        Random random = new Random(5);
+        SimulationResult all = new SimulationResult();
+        SimulationResult narrow = new SimulationResult();
+        SimulationResult wide = new SimulationResult();
+        for (int i = 0; i < 20000; i++) {
+            int value = 100 + random.nextInt(20);
+            all.record(value);
+            narrow.record(value);
+        }
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(100000) - 50000;
+            all.record(value);
+            wide.record(value);
+        }
+
+        SimulationResult merged = narrow.copy().merge(wide);
+        assertEquals(all.trials(), merged.trials());
+        assertEquals(all.min(), merged.min());
+        assertEquals(all.max(), merged.max());
+        assertEquals(all.mean(), merged.mean(), 1e-9);
+        assertEquals(all.variance(), merged.variance(), all.variance() * 1e-9);
+        assertEquals(all.trials(), total(merged.histogram()));
+        assertEquals(all.binWidth(), merged.binWidth());
+        assertArrayEquals(all.histogram(), merged.histogram());
+
+        // The other way around gives the same.
+        SimulationResult reversed = wide.copy().merge(narrow);
+        assertEquals(merged.mean(), reversed.mean(), 1e-9);
+        assertArrayEquals(merged.histogram(), reversed.histogram());
+
+        // The parts are left as they were.
+        assertEquals(20000, narrow.trials());
+        assertEquals(1, narrow.binWidth());
+    }
+
+    @Test
+    public void mergingEmptyResults() {
+        SimulationResult result = new SimulationResult();
+        result.record(3);
+        result.merge(new SimulationResult());
+        assertEquals(1, result.trials());
+        SimulationResult empty = new SimulationResult().merge(result);
+        assertEquals(1, empty.trials());
+        assertEquals(3.0, empty.mean(), 0.0);
+        assertTrue(Double.isNaN(new SimulationResult().mean()));
+        assertEquals(0, new SimulationResult().histogram().length);
+    }
+
+    private static long total(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+}